@@ -92,6 +92,8 @@ def main():
     parser.add_argument("--plan", help="Plan file", required=True)
     parser.add_argument("--encoder", help="MaxSAT encoder", required=True)
     parser.add_argument("--verbose", help="Verbose mode", action='store_true')
+    parser.add_argument("--in-process", help="Solve with the built-in MaxSAT solver in a single JVM",
+                        action='store_true')
 
     args = parser.parse_args()
 
@@ -100,12 +102,14 @@ def main():
     plan_file = args.plan
     alg = args.encoder
     verbose = args.verbose
+    in_process = args.in_process
 
     print("Domain file:  {}".format(domain_file))
     print("Problem file: {}".format(problem_file))
     print("Plan file:    {}".format(plan_file))
     print("Encoder:      {}".format(alg))
     print("Verbose:      {}".format(verbose))
+    print("In process:   {}".format(in_process))
 
     check_file(domain_file, exit_on_no=True)
     check_file(problem_file, exit_on_no=True)
@@ -126,6 +130,28 @@ def main():
     #
     clean()
 
+    #
+    # encode, solve and decode in one JVM
+    #
+    if in_process:
+        print_header("Solving in process")
+        args = ["java", JAVA_VM_ARGS, "-cp", JAVA_CLASSPATH, JAVA_MAIN,
+                "--domain", domain_file,
+                "--problem", problem_file,
+                "--plan", plan_file,
+                "--enc", alg,
+                "--wcnf", wcnf_file,
+                "--pop", pop_file,
+                "--action", "SOLVE"]
+        if verbose:
+            args.append("--verbose")
+
+        print(" ".join(args))
+        if subprocess.call(args) != 0 or not check_file(pop_file):
+            print("Solving failed")
+            exit(1)
+        return
+
     #
     # encode WCNF
     #
@@ -27,37 +27,111 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
 
 import au.rmit.agtgrp.mrr.utils.FormattingUtils;
+import au.rmit.agtgrp.mrr.utils.collections.graph.CsrGraph;
 import au.rmit.agtgrp.mrr.utils.collections.graph.UndirectedColouredGraph;
 
 public class NautyInterface {
 
-	public static NautyResult getAutomorphisms(UndirectedColouredGraph<Integer, Integer> graph, boolean verbose) {
+	public static NautyResult getAutomorphisms(final UndirectedColouredGraph<Integer, Integer> graph, boolean verbose) {
 
-		try {
-			List<Integer> vertices = new ArrayList<Integer>(graph.getVertices());
-			Collections.sort(vertices);
-			if (vertices.get(0) != 0 || vertices.get(vertices.size()-1) != vertices.size()-1)
-				throw new IllegalArgumentException("Vertices must be from 0 to " + (vertices.size()-1) + ": " + FormattingUtils.toString(vertices));
-
-
-			Map<Integer, List<Integer>> vertsByColour = new HashMap<Integer, List<Integer>>();
-			for (int vertex : vertices) {
-				int colour = graph.getColour(vertex);
-				List<Integer> verts = vertsByColour.get(colour);
-				if (verts == null) {
-					verts = new ArrayList<Integer>();
-					vertsByColour.put(colour, verts);
+		List<Integer> vertices = new ArrayList<Integer>(graph.getVertices());
+		Collections.sort(vertices);
+		if (vertices.get(0) != 0 || vertices.get(vertices.size()-1) != vertices.size()-1)
+			throw new IllegalArgumentException("Vertices must be from 0 to " + (vertices.size()-1) + ": " + FormattingUtils.toString(vertices));
+
+
+		final Map<Integer, List<Integer>> vertsByColour = new HashMap<Integer, List<Integer>>();
+		for (int vertex : vertices) {
+			int colour = graph.getColour(vertex);
+			List<Integer> verts = vertsByColour.get(colour);
+			if (verts == null) {
+				verts = new ArrayList<Integer>();
+				vertsByColour.put(colour, verts);
+			}
+			verts.add(vertex);
+		}
+
+		return runDreadnaut(vertices.size(), new DreadnautGraphWriter() {
+			@Override
+			public void write(BufferedWriter wr) throws IOException {
+				for (int i = 0; i < graph.getVertices().size(); i++) {
+					StringBuilder sb = new StringBuilder();
+					for (int dest : graph.getLinksFrom(i))
+						sb.append(dest + " ");
+					sb.append(";\n");
+					wr.write(sb.toString());
 				}
-				verts.add(vertex);
+
+				StringBuilder sb = new StringBuilder();
+				sb.append("f=[");
+				for (int col : graph.getColours()) {			
+					for (int vert : vertsByColour.get(col))
+						sb.append(vert + " ");
+					sb.append("|");
+				}
+				sb.append("]\n");
+				wr.write(sb.toString());
 			}
+		}, verbose);
+	}
 
+	/**
+	 * Vertex v of the graph has colour colours[v]. Cells of the initial partition are 
+	 * ordered by colour.
+	 */
+	public static NautyResult getAutomorphisms(final CsrGraph graph, final int[] colours, boolean verbose) {
+		if (colours.length != graph.getNumVertices())
+			throw new IllegalArgumentException("Expected " + graph.getNumVertices() + " colours, got " + colours.length);
+
+		return runDreadnaut(graph.getNumVertices(), new DreadnautGraphWriter() {
+			@Override
+			public void write(BufferedWriter wr) throws IOException {
+				int[] adj = graph.getAdjacency();
+				for (int v = 0; v < graph.getNumVertices(); v++) {
+					for (int i = graph.getRowStart(v); i < graph.getRowEnd(v); i++) {
+						wr.write(Integer.toString(adj[i]));
+						wr.write(' ');
+					}
+					wr.write(";\n");
+				}
+
+				Integer[] order = new Integer[colours.length];
+				for (int v = 0; v < order.length; v++)
+					order[v] = v;
+				Arrays.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer v1, Integer v2) {
+						int c = Integer.compare(colours[v1], colours[v2]);
+						return c != 0 ? c : Integer.compare(v1, v2);
+					}
+				});
+
+				wr.write("f=[");
+				for (int i = 0; i < order.length; i++) {
+					if (i > 0 && colours[order[i]] != colours[order[i-1]])
+						wr.write("|");
+					wr.write(order[i] + " ");
+				}
+				wr.write("|]\n");
+			}
+		}, verbose);
+	}
+
+	private static interface DreadnautGraphWriter {
+		void write(BufferedWriter wr) throws IOException;
+	}
+
+	private static NautyResult runDreadnaut(int nVertices, DreadnautGraphWriter graphWriter, boolean verbose) {
+		try {
 			ProcessBuilder pb = new ProcessBuilder("dreadnaut");
 			pb.redirectErrorStream(true);
 			Process process = pb.start();
@@ -66,25 +140,8 @@ public class NautyInterface {
 			t.start();
 
 			BufferedWriter wr = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));		
-			wr.write("n=" + vertices.size() + " g\n");
-
-			for (int i = 0; i < graph.getVertices().size(); i++) {
-				StringBuilder sb = new StringBuilder();
-				for (int dest : graph.getLinksFrom(i))
-					sb.append(dest + " ");
-				sb.append(";\n");
-				wr.write(sb.toString());
-			}
-
-			StringBuilder sb = new StringBuilder();
-			sb.append("f=[");
-			for (int col : graph.getColours()) {			
-				for (int vert : vertsByColour.get(col))
-					sb.append(vert + " ");
-				sb.append("|");
-			}
-			sb.append("]\n");
-			wr.write(sb.toString());
+			wr.write("n=" + nVertices + " g\n");
+			graphWriter.write(wr);
 			wr.write("x\n o\n q\n"); // execute, orbits, quit
 			wr.flush(); // close?
 
@@ -93,9 +150,9 @@ public class NautyInterface {
 
 			List<Permutation> permutations = new ArrayList<Permutation>();
 			for (int[][] cycles : pl.generators)
-				permutations.add(Permutation.buildFromCycleFormat(graph.getVertices().size(), cycles));
+				permutations.add(Permutation.buildFromCycleFormat(nVertices, cycles));
 
-			return new NautyResult(new Group(permutations), pl.orbits, pl.grpSize, graph.getVertices().size());
+			return new NautyResult(new Group(permutations), pl.orbits, pl.grpSize, nVertices);
 
 		} catch (IOException | InterruptedException e) {
 			throw new RuntimeException(e);
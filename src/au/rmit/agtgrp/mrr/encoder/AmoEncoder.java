@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.encoder;
+
+import java.util.Arrays;
+
+import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.AmoEncoding;
+import au.rmit.agtgrp.mrr.sat.SatFormula;
+
+/**
+ * Encodes at-most-one constraints over a set of literals. Every encoding other 
+ * than PAIRWISE introduces auxiliary propositions, which are allocated from the 
+ * proposition map as encoded objects.
+ */
+public class AmoEncoder {
+
+	// below this many literals the pairwise encoding is no larger than the others
+	private static final int PAIRWISE_LIMIT = 4;
+	private static final int COMMANDER_GROUP_SIZE = 3;
+	private static final int BIMANDER_GROUP_SIZE = 2;
+
+	private final AmoEncoding encoding;
+	private final PropositionMap propMap;
+	private int nAux;
+
+	public AmoEncoder(AmoEncoding encoding, PropositionMap propMap) {
+		this.encoding = encoding;
+		this.propMap = propMap;
+		nAux = 0;
+	}
+
+	public AmoEncoding getEncoding() {
+		return encoding;
+	}
+
+	public int getNumAuxiliaryProps() {
+		return nAux;
+	}
+
+	public void encode(int[] lits, SatFormula formula) {
+		switch (encoding) {
+		case PAIRWISE:
+			encodePairwise(lits, formula);
+			break;
+		case SEQUENTIAL:
+			encodeSequential(lits, formula);
+			break;
+		case COMMANDER:
+			encodeCommander(lits, formula);
+			break;
+		case PRODUCT:
+			encodeProduct(lits, formula);
+			break;
+		case BIMANDER:
+			encodeBimander(lits, formula);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown at-most-one encoding: " + encoding);
+		}
+	}
+
+	private void encodePairwise(int[] lits, SatFormula formula) {
+		for (int i = 0; i < lits.length; i++) {
+			for (int j = i+1; j < lits.length; j++)
+				formula.addClause(-lits[i], -lits[j]);
+		}
+	}
+
+	/*
+	 * Sinz's sequential counter, 3n - 4 clauses and n - 1 auxiliaries. 
+	 * s_i is true if any of x_1 .. x_i is true.
+	 */
+	private void encodeSequential(int[] lits, SatFormula formula) {
+		int n = lits.length;
+		if (n <= PAIRWISE_LIMIT) {
+			encodePairwise(lits, formula);
+			return;
+		}
+
+		int prev = newAux();
+		formula.addClause(-lits[0], prev);
+		for (int i = 1; i < n - 1; i++) {
+			int s = newAux();
+			formula.addClause(-lits[i], s);
+			formula.addClause(-prev, s);
+			formula.addClause(-lits[i], -prev);
+			prev = s;
+		}
+		formula.addClause(-lits[n-1], -prev);
+	}
+
+	/*
+	 * Klieber and Kwon's commander encoding. Literals are split into groups, each 
+	 * literal implies its group's commander, and at most one commander is true.
+	 */
+	private void encodeCommander(int[] lits, SatFormula formula) {
+		int n = lits.length;
+		if (n <= PAIRWISE_LIMIT) {
+			encodePairwise(lits, formula);
+			return;
+		}
+
+		int nGroups = (n + COMMANDER_GROUP_SIZE - 1) / COMMANDER_GROUP_SIZE;
+		int[] commanders = new int[nGroups];
+		for (int g = 0; g < nGroups; g++) {
+			int[] group = Arrays.copyOfRange(lits, g * COMMANDER_GROUP_SIZE, Math.min((g+1) * COMMANDER_GROUP_SIZE, n));
+			encodePairwise(group, formula);
+
+			commanders[g] = newAux();
+			for (int lit : group)
+				formula.addClause(-lit, commanders[g]);
+		}
+
+		encodeCommander(commanders, formula);
+	}
+
+	/*
+	 * Chen's product encoding. Literals are placed on a p x q grid, each literal 
+	 * implies its row and column, and at most one row and one column are true.
+	 */
+	private void encodeProduct(int[] lits, SatFormula formula) {
+		int n = lits.length;
+		if (n <= PAIRWISE_LIMIT) {
+			encodePairwise(lits, formula);
+			return;
+		}
+
+		int p = (int) Math.ceil(Math.sqrt(n));
+		int q = (n + p - 1) / p;
+		int[] rows = newAux(p);
+		int[] cols = newAux(q);
+		for (int i = 0; i < n; i++) {
+			formula.addClause(-lits[i], rows[i / q]);
+			formula.addClause(-lits[i], cols[i % q]);
+		}
+
+		encodeProduct(rows, formula);
+		encodeProduct(cols, formula);
+	}
+
+	/*
+	 * Nguyen and Mai's bimander encoding. Literals are split into groups with a 
+	 * pairwise constraint in each, and each literal forces the binary code of its 
+	 * group onto the commander bits.
+	 */
+	private void encodeBimander(int[] lits, SatFormula formula) {
+		int n = lits.length;
+		if (n <= PAIRWISE_LIMIT) {
+			encodePairwise(lits, formula);
+			return;
+		}
+
+		int nGroups = (n + BIMANDER_GROUP_SIZE - 1) / BIMANDER_GROUP_SIZE;
+		int nBits = 32 - Integer.numberOfLeadingZeros(nGroups - 1);
+		int[] bits = newAux(nBits);
+		for (int g = 0; g < nGroups; g++) {
+			int[] group = Arrays.copyOfRange(lits, g * BIMANDER_GROUP_SIZE, Math.min((g+1) * BIMANDER_GROUP_SIZE, n));
+			encodePairwise(group, formula);
+
+			for (int lit : group) {
+				for (int b = 0; b < nBits; b++)
+					formula.addClause(-lit, ((g >> b) & 1) == 1 ? bits[b] : -bits[b]);
+			}
+		}
+	}
+
+	private int[] newAux(int n) {
+		int[] aux = new int[n];
+		for (int i = 0; i < n; i++)
+			aux[i] = newAux();
+		return aux;
+	}
+
+	private int newAux() {
+		return propMap.addEncodedObject("amo-" + encoding.name().toLowerCase() + "-aux-" + nAux++);
+	}
+
+}
@@ -32,7 +32,7 @@ public class CnfEncoderOptions {
 	}
 
 	public enum AcyclicityOpt {
-		ATOM, BINARY
+		ATOM, BINARY, ELIMINATION, LAZY
 	}
 	
 	public enum EqualityOpt {
@@ -47,6 +47,10 @@ public class CnfEncoderOptions {
 		TOTAL_ORDER, PARTIAL_ORDER
 	}
 	
+	public enum AmoEncoding {
+		PAIRWISE, SEQUENTIAL, COMMANDER, PRODUCT, BIMANDER
+	}
+	
 	public final boolean verbose;	
 	public final AsymmetryOpt asymmOpt;
 	public final AcyclicityOpt acyclOpt;
@@ -57,9 +61,23 @@ public class CnfEncoderOptions {
 	public final long optTime;
 	public final boolean optTransClosure;
 	public final DirectedGraph<Operator<Variable>> customPrecGraph;
+	public final int nThreads;
+	public final AmoEncoding amoEncoding;
 	
 	public CnfEncoderOptions(AsymmetryOpt asymm, EqualityOpt equality, AcyclicityOpt acycl, CausalStructureOpt csOpt, 
 			OutputOpt outOpt, boolean optimise, long optTime, boolean optTransClosure, boolean verbose, DirectedGraph<Operator<Variable>> customPrecGraph) {
+		this(asymm, equality, acycl, csOpt, outOpt, optimise, optTime, optTransClosure, verbose, customPrecGraph, 1);
+	}
+	
+	public CnfEncoderOptions(AsymmetryOpt asymm, EqualityOpt equality, AcyclicityOpt acycl, CausalStructureOpt csOpt, 
+			OutputOpt outOpt, boolean optimise, long optTime, boolean optTransClosure, boolean verbose, DirectedGraph<Operator<Variable>> customPrecGraph,
+			int nThreads) {
+		this(asymm, equality, acycl, csOpt, outOpt, optimise, optTime, optTransClosure, verbose, customPrecGraph, nThreads, AmoEncoding.PAIRWISE);
+	}
+	
+	public CnfEncoderOptions(AsymmetryOpt asymm, EqualityOpt equality, AcyclicityOpt acycl, CausalStructureOpt csOpt, 
+			OutputOpt outOpt, boolean optimise, long optTime, boolean optTransClosure, boolean verbose, DirectedGraph<Operator<Variable>> customPrecGraph,
+			int nThreads, AmoEncoding amoEncoding) {
 		this.verbose = verbose;
 		this.asymmOpt = asymm;
 		this.acyclOpt = acycl;
@@ -70,6 +88,8 @@ public class CnfEncoderOptions {
 		this.optTransClosure = optTransClosure;	
 		this.equalityOpt = equality;
 		this.customPrecGraph = customPrecGraph;
+		this.nThreads = nThreads;
+		this.amoEncoding = amoEncoding;
 	}
 		
 	public CnfEncoderOptions(AsymmetryOpt asymm, AcyclicityOpt acyc, boolean optimise, long optTime, boolean verbose) {
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.encoder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import au.rmit.agtgrp.mrr.utils.FileUtils;
+import au.rmit.agtgrp.mrr.utils.TimeUtils;
+
+/**
+ * Wall time, CPU time, allocation and formula growth of each phase of an encoding.
+ * CPU time and allocation include the pool workers of the parallel phases.
+ */
+public class EncoderStats {
+
+	public static final String CSV_HEADER = "phase,wall_ms,cpu_ms,allocated_bytes,props,clauses,literals";
+
+	private static class Phase {
+		private final String name;
+		private long wallTime;
+		private long cpuTime;
+		private long allocated;
+		private long props;
+		private long clauses;
+		private long literals;
+
+		private Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	private final List<Phase> phases;
+	private Phase current;
+
+	public EncoderStats() {
+		phases = new ArrayList<Phase>();
+		current = null;
+	}
+
+	public void startPhase(String name, long props, long clauses, long literals) {
+		if (current != null)
+			throw new IllegalStateException("Phase " + current.name + " has not ended");
+
+		current = new Phase(name);
+		current.props = -props;
+		current.clauses = -clauses;
+		current.literals = -literals;
+		current.allocated = -TimeUtils.getAllocatedBytes();
+		current.cpuTime = -TimeUtils.getCpuTime();
+		current.wallTime = -System.nanoTime();
+	}
+
+	/*
+	 * Called by a pool worker with the CPU time and allocation of a task it ran, as 
+	 * the counters of the encoding thread do not include them.
+	 */
+	public synchronized void addWorkerUsage(long cpuTime, long allocated) {
+		if (current == null)
+			throw new IllegalStateException("No phase has started");
+
+		current.cpuTime += cpuTime;
+		current.allocated += allocated;
+	}
+
+	public synchronized void endPhase(long props, long clauses, long literals) {
+		if (current == null)
+			throw new IllegalStateException("No phase has started");
+
+		current.wallTime += System.nanoTime();
+		current.cpuTime += TimeUtils.getCpuTime();
+		current.allocated += TimeUtils.getAllocatedBytes();
+		current.props += props;
+		current.clauses += clauses;
+		current.literals += literals;
+		phases.add(current);
+		current = null;
+	}
+
+	public int getNumPhases() {
+		return phases.size();
+	}
+
+	public String getPhaseName(int i) {
+		return phases.get(i).name;
+	}
+
+	public long getWallTime(int i) {
+		return phases.get(i).wallTime;
+	}
+
+	public long getCpuTime(int i) {
+		return phases.get(i).cpuTime;
+	}
+
+	public long getAllocatedBytes(int i) {
+		return phases.get(i).allocated;
+	}
+
+	public long getNumProps(int i) {
+		return phases.get(i).props;
+	}
+
+	public long getNumClauses(int i) {
+		return phases.get(i).clauses;
+	}
+
+	public long getNumLiterals(int i) {
+		return phases.get(i).literals;
+	}
+
+	/*
+	 * One row per phase, in order, then a total row.
+	 */
+	public String formatCsv() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(CSV_HEADER).append('\n');
+		Phase total = new Phase("total");
+		for (Phase phase : phases) {
+			appendRow(sb, phase);
+			total.wallTime += phase.wallTime;
+			total.cpuTime += phase.cpuTime;
+			total.allocated += phase.allocated;
+			total.props += phase.props;
+			total.clauses += phase.clauses;
+			total.literals += phase.literals;
+		}
+		appendRow(sb, total);
+		return sb.toString();
+	}
+
+	private static void appendRow(StringBuilder sb, Phase phase) {
+		sb.append(phase.name).append(',');
+		sb.append(String.format(Locale.ROOT, "%.3f", phase.wallTime / 1e6)).append(',');
+		sb.append(String.format(Locale.ROOT, "%.3f", phase.cpuTime / 1e6)).append(',');
+		sb.append(phase.allocated).append(',');
+		sb.append(phase.props).append(',');
+		sb.append(phase.clauses).append(',');
+		sb.append(phase.literals).append('\n');
+	}
+
+	public void writeCsv(File file) {
+		FileUtils.writeFile(file, formatCsv());
+	}
+
+}
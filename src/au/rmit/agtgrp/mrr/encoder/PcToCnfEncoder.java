@@ -22,6 +22,8 @@
 package au.rmit.agtgrp.mrr.encoder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -31,9 +33,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 
 import au.rmit.agtgrp.mrr.auto.Permutation;
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.AcyclicityOpt;
+import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.CausalStructureOpt;
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.EqualityOpt;
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.OutputOpt;
 import au.rmit.agtgrp.mrr.encoder.PcPlanAutomorphisms.SymmetryType;
@@ -51,12 +59,16 @@ import au.rmit.agtgrp.mrr.pct.Producer;
 import au.rmit.agtgrp.mrr.pct.Threat;
 import au.rmit.agtgrp.mrr.pct.ThreatMap;
 import au.rmit.agtgrp.mrr.pddl.Operator;
+import au.rmit.agtgrp.mrr.sat.ClauseArena;
 import au.rmit.agtgrp.mrr.sat.SatFormula;
 import au.rmit.agtgrp.mrr.utils.FormattingUtils;
+import au.rmit.agtgrp.mrr.utils.TimeUtils;
 import au.rmit.agtgrp.mrr.utils.collections.Pair;
 
 public class PcToCnfEncoder {
 
+	private static final int LINKS_PER_TASK = 256;
+
 	private static Comparator<Operator<?>> OPERATOR_COMPARATOR = new Comparator<Operator<?>>(){
 		@Override
 		public int compare(Operator<?> o1, Operator<?> o2) {
@@ -75,16 +87,21 @@ public class PcToCnfEncoder {
 	protected ThreatMap threatMap;
 
 	protected SatFormula satFormula;
+	protected AmoEncoder amoEncoder;
 
 	protected int opEncodingBits;
 	protected Map<Type, List<Constant>> constantsByType;
 	protected Map<Type, List<Variable>> variablesByType;
 	protected Map<String, List<Operator<Variable>>> operatorsByType;
 	protected Map<Constant, Variable> constantVars;
+	protected int[] constantVarIds;
 
 	protected int nSymmetryClauses;
 	protected int nSymmetryProps;
 
+	protected EncoderStats stats; // null unless statistics are collected
+	private boolean collectStats;
+
 	public PcToCnfEncoder(CnfEncoderOptions options) {
 		this.options = options;
 	}
@@ -97,23 +114,30 @@ public class PcToCnfEncoder {
 		this.plan = plan;
 
 		opEncodingBits = (int) (Math.log(plan.getPlanSteps().size()) / Math.log(2)) + 1;
-		propMap = new PropositionMap(opEncodingBits);
+		propMap = new PropositionMap(opEncodingBits, plan);
 
 		satFormula = initSatFormula();
+		amoEncoder = new AmoEncoder(options.amoEncoding, propMap);
+		stats = collectStats ? new EncoderStats() : null;
 
 		constantsByType = getConstantsByType();
 		variablesByType = getVariablesByType();
 		operatorsByType = getOperatorsByType();
 		constantVars = getConstantVars();
+		constantVarIds = getConstantVarIds();
 
 		causalStruct = plan.getConstraints();		
 		if (options.verbose)
 			System.out.println("Filtering causal links");
+		startPhase("causal_links");
 		causalStruct = filterCausalLinks();
+		endPhase();
 
 		if (options.verbose)
 			System.out.println("Building threats");
+		startPhase("threats");
 		threatMap = ThreatMap.getThreatMap(plan.getPlanSteps());
+		endPhase();
 
 		encode();
 
@@ -129,36 +153,50 @@ public class PcToCnfEncoder {
 
 		if (options.verbose)
 			System.out.println("Building causal link and threat constraints");
+		startPhase("producer_consumer");
 		buildProducerConsumerConstraints();
+		endPhase();
 
 		if (options.verbose)
 			System.out.println("Building init/goal ordering constraints");
+		startPhase("init_goal_ordering");
 		buildInitGoalOrderingConstraints();
+		endPhase();
 
 		if (!causalStruct.isGround()) {
 			if (options.verbose)
 				System.out.println("Building variable domain constraints");
+			startPhase("variable_domains");
 			buildVariableDomainConstraints();
+			endPhase();
 		}
 
 		if (options.outOpt.equals(OutputOpt.TOTAL_ORDER)) {
 			if (options.verbose)
 				System.out.println("Building total order constraints");
+			startPhase("total_order");
 			buildTotalOrderConstraints();
+			endPhase();
 		}
 
 		if (options.verbose)
 			System.out.println("Closing precedence relation");
+		startPhase("precedence_closure");
 		buildPrecClosureConstraints();
+		endPhase();
 
 		if (options.verbose)
 			System.out.println("Building symmetry breaking constraints");
+		startPhase("symmetry_breaking");
 		buildSymmetryBreakingConstraints();
+		endPhase();
 
 		if (!causalStruct.isGround()) {
 			if (options.verbose)
 				System.out.println("Closing equality relation");	
+			startPhase("equality_closure");
 			buildEqualityClosureConstraints();
+			endPhase();
 		}
 	}
 
@@ -166,6 +204,29 @@ public class PcToCnfEncoder {
 		return new SatFormula();
 	}
 
+	protected void startPhase(String name) {
+		if (stats != null)
+			stats.startPhase(name, propMap.getNPropositions(), satFormula.getNumClauses(), satFormula.getNumLiterals());
+	}
+
+	protected void endPhase() {
+		if (stats != null)
+			stats.endPhase(propMap.getNPropositions(), satFormula.getNumClauses(), satFormula.getNumLiterals());
+	}
+
+	/**
+	 * Records the statistics of each phase of the next encoding, for getStats.
+	 */
+	public void setCollectStats(boolean collectStats) {
+		this.collectStats = collectStats;
+	}
+
+	public EncoderStats getStats() {
+		if (stats == null)
+			throw new IllegalStateException("Encoding statistics were not collected");
+		return stats;
+	}
+
 	public PropositionMap getPropositionMap() {
 		return propMap;
 	}
@@ -254,6 +315,15 @@ public class PcToCnfEncoder {
 		return map;
 	}
 
+	protected int[] getConstantVarIds() {
+		int[] ids = new int[plan.getConstants().size()];
+		Arrays.fill(ids, -1);
+		for (Constant c : constantVars.keySet())
+			ids[plan.getConstantId(c)] = plan.getVariableId(constantVars.get(c));
+
+		return ids;
+	}
+
 	protected int buildEqualityProp(Variable v1, Variable v2) {
 		Integer eqProp = propMap.getEqualityProposition(v1, v2);
 		if (eqProp == null) 
@@ -261,6 +331,13 @@ public class PcToCnfEncoder {
 		return eqProp;
 	}
 
+	protected int buildEqualityProp(int v1, int v2) {
+		int eqProp = propMap.getEqualityProposition(v1, v2);
+		if (eqProp == 0) 
+			eqProp = propMap.addEqualityProposition(v1, v2);
+		return eqProp;
+	}
+
 	protected int buildThreatProp(PcLink pcl, Threat threat) {
 		Integer tProp = propMap.getThreatProposition(pcl, threat);
 		if (tProp == null) {
@@ -270,18 +347,21 @@ public class PcToCnfEncoder {
 	}
 
 	protected int buildPrecProp(Operator<Variable> op1, Operator<Variable> op2) {
-		Integer prop = propMap.getPrecedenceProposition(op1, op2);
-		if (prop == null) {
-			if (options.acyclOpt == AcyclicityOpt.ATOM)
-				propMap.addPrecedenceProposition(op1, op2);	
-			else if (options.acyclOpt == AcyclicityOpt.BINARY) {
+		return buildPrecProp(propMap.getStepIndex(op1), propMap.getStepIndex(op2));
+	}
+
+	protected int buildPrecProp(int i, int j) {
+		int prop = propMap.getPrecedenceProposition(i, j);
+		if (prop == 0) {
+			if (options.acyclOpt == AcyclicityOpt.BINARY) {
 				for (int k = 1; k <= opEncodingBits; k++)			
-					propMap.addPrecedenceProposition(op1, op2, k);	
+					propMap.addPrecedenceProposition(i, j, k);	
 			}
-			return propMap.getPrecedenceProposition(op1, op2);
+			else
+				propMap.addPrecedenceProposition(i, j);	
+			return propMap.getPrecedenceProposition(i, j);
 		}
 		return prop;
-
 	}
 
 	protected int getVariableAssignmentProposition(Variable v, Constant c) {
@@ -292,6 +372,14 @@ public class PcToCnfEncoder {
 		}		
 	}
 
+	protected int getVariableAssignmentProposition(int v, int c) {
+		if (options.equalityOpt.equals(EqualityOpt.IDX)) {
+			return propMap.getVariableAssignmentProposition(v, c);
+		} else {
+			return propMap.getEqualityProposition(v, constantVarIds[c]);
+		}
+	}
+
 
 	protected CausalStructure filterCausalLinks() {
 		CausalStructure filtered = new CausalStructure(causalStruct.isTotalOrder(), causalStruct.isGround());
@@ -332,7 +420,7 @@ public class PcToCnfEncoder {
 				return false;
 			return !options.customPrecGraph.containsEdge(prec, ante);
 		case DEORDER:
-			return plan.getPlanSteps().indexOf(prec) > plan.getPlanSteps().indexOf(ante);
+			return propMap.getStepIndex(prec) > propMap.getStepIndex(ante);
 		case REORDER:
 			return false;
 		default:
@@ -360,106 +448,332 @@ public class PcToCnfEncoder {
 		}
 
 		// if pclink then x1 = y1 and x2 = y2 etc, and op1 < op2, and t1 and t2 etc
-		for (PcLink pcl : causalStruct) {
+		List<PcLink> links = new ArrayList<PcLink>();
+		for (PcLink pcl : causalStruct)
+			links.add(pcl);
 
-			int pclProp = propMap.getProducerConsumerProposition(pcl);
+		if (options.nThreads <= 1 || links.size() < 2 * LINKS_PER_TASK) {
+			for (PcLink pcl : links)
+				mergeLinkClauses(encodeLink(pcl));
+			return;
+		}
 
-			List<Integer> rtl = new ArrayList<Integer>();
+		// encode a bounded number of ranges of links at a time, merging them in order
+		ForkJoinPool pool = new ForkJoinPool(options.nThreads);
+		try {
+			int wave = 2 * options.nThreads;
+			for (int first = 0; first < links.size(); first += wave * LINKS_PER_TASK) {
+				List<Callable<List<LinkClauses>>> tasks = new ArrayList<Callable<List<LinkClauses>>>();
+				for (int i = first; i < Math.min(first + wave * LINKS_PER_TASK, links.size()); i += LINKS_PER_TASK) {
+					final List<PcLink> range = links.subList(i, Math.min(i + LINKS_PER_TASK, links.size()));
+					tasks.add(measured(new Callable<List<LinkClauses>>() {
+						@Override
+						public List<LinkClauses> call() {
+							List<LinkClauses> encoded = new ArrayList<LinkClauses>();
+							for (PcLink pcl : range)
+								encoded.add(encodeLink(pcl));
+							return encoded;
+						}
+					}));
+				}
 
-			if (!causalStruct.isGround()) { // x1 = y1 and x2 = y2 ...
-				for (int i = 0; i < pcl.getProducer().literal.getAtom().getVariables().size(); i++) {
-					int eqProp = buildEqualityProp(pcl.getProducer().literal.getAtom().getVariables().get(i), pcl.getConsumer().literal.getAtom().getVariables().get(i));			
-					satFormula.addClause(-pclProp, eqProp);
-					rtl.add(-eqProp);
+				for (Future<List<LinkClauses>> future : pool.invokeAll(tasks)) {
+					for (LinkClauses lc : future.get())
+						mergeLinkClauses(lc);
 				}
 			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
 
-			// op1 < op2
-			int precProp = buildPrecProp(pcl.getProducer().operator, pcl.getConsumer().operator);
-			satFormula.addClause(-pclProp, precProp);
-			rtl.add(-precProp);
-
-			// all threats
-			for (Threat threat : causalStruct.isGround() ? threatMap.getGroundThreats(pcl, plan.getOriginalSub()) : threatMap.getNonGroundThreats(pcl)) {				
-
-				int tprop = buildThreatProp(pcl, threat);
-				satFormula.addClause(-pclProp, tprop);
-				rtl.add(-tprop);
-
-				// build threat: t1 != x1 or t2 != x2 etc, or opt < op1 or op2 < opt	
-				List<Integer> clause = new ArrayList<Integer>(); // ltr
-				// neg thrt prop
-				clause.add(-tprop);
-
-				// x1 != t1 etc
-				if (!causalStruct.isGround()) { 
-					for (int k = 0; k < pcl.getConsumer().literal.getAtom().getVariables().size(); k++) {
-						// threat var is the same as producer var
-						if (pcl.getProducer().literal.getAtom().getVariables().get(k).equals(threat.literal.getAtom().getVariables().get(k)))
-							continue;
-						int eq = buildEqualityProp(pcl.getProducer().literal.getAtom().getVariables().get(k), threat.literal.getAtom().getVariables().get(k));
-						clause.add(-eq);
-						satFormula.addClause(eq, tprop);
-					}
-				}
+	/*
+	 * Builds the clauses of a causal link without touching the proposition map or the 
+	 * formula, so that links can be encoded concurrently. Propositions are requested 
+	 * rather than allocated, and mergeLinkClauses resolves the requests in order, so 
+	 * the numbering is the same however the links are scheduled.
+	 */
+	protected LinkClauses encodeLink(PcLink pcl) {
+		LinkClauses lc = new LinkClauses(pcl);
 
-				// t < p so long as t != p
-				if (!threat.operator.equals(pcl.getProducer().operator) && 
-						!isFiltered(threat.operator, pcl.getProducer().operator)) {
-					int tPrecProp = buildPrecProp(threat.operator, pcl.getProducer().operator);
-					clause.add(tPrecProp);
-					satFormula.addClause(-tPrecProp, tprop);
-				}
+		int pclProp = lc.link();
 
-				// c < t
-				if (!isFiltered(pcl.getConsumer().operator, threat.operator)) {
-					int tPrecProp =	buildPrecProp(pcl.getConsumer().operator, threat.operator);
-					clause.add(tPrecProp);
-					satFormula.addClause(-tPrecProp, tprop);
+		List<Integer> rtl = new ArrayList<Integer>();
+
+		if (!causalStruct.isGround()) { // x1 = y1 and x2 = y2 ...
+			for (int i = 0; i < pcl.getProducer().literal.getAtom().getVariables().size(); i++) {
+				int eqProp = lc.equality(plan.getVariableId(pcl.getProducer().literal.getAtom().getVariables().get(i)), 
+						plan.getVariableId(pcl.getConsumer().literal.getAtom().getVariables().get(i)));			
+				lc.addClause(-pclProp, eqProp);
+				rtl.add(-eqProp);
+			}
+		}
+
+		// op1 < op2
+		int precProp = lc.precedence(propMap.getStepIndex(pcl.getProducer().operator), propMap.getStepIndex(pcl.getConsumer().operator));
+		lc.addClause(-pclProp, precProp);
+		rtl.add(-precProp);
+
+		// all threats
+		for (Threat threat : causalStruct.isGround() ? threatMap.getGroundThreats(pcl, plan.getOriginalSub()) : threatMap.getNonGroundThreats(pcl)) {				
+
+			int tprop = lc.threat(threat);
+			lc.addClause(-pclProp, tprop);
+			rtl.add(-tprop);
+
+			// build threat: t1 != x1 or t2 != x2 etc, or opt < op1 or op2 < opt	
+			List<Integer> clause = new ArrayList<Integer>(); // ltr
+			// neg thrt prop
+			clause.add(-tprop);
+
+			// x1 != t1 etc
+			if (!causalStruct.isGround()) { 
+				for (int k = 0; k < pcl.getConsumer().literal.getAtom().getVariables().size(); k++) {
+					// threat var is the same as producer var
+					if (pcl.getProducer().literal.getAtom().getVariables().get(k).equals(threat.literal.getAtom().getVariables().get(k)))
+						continue;
+					int eq = lc.equality(plan.getVariableId(pcl.getProducer().literal.getAtom().getVariables().get(k)), 
+							plan.getVariableId(threat.literal.getAtom().getVariables().get(k)));
+					clause.add(-eq);
+					lc.addClause(eq, tprop);
 				}
+			}
 
-				Literal<Variable> undoing = threat.operator.getUndoing(threat.literal.getNegated());
-				// threat can undone by a later postcondition of the same action, if they have the same bindings
-				if (!causalStruct.isGround() && undoing != null) {										
-					List<Integer> conj = new ArrayList<Integer>(); // x1=y1, ..., xn=yn -> tprop
-					for (int k = 0; k < threat.literal.getAtom().getVariables().size(); k++) {
-						// threat var is the same as producer var
-						if (undoing.getAtom().getVariables().get(k).equals(threat.literal.getAtom().getVariables().get(k)))
-							continue;
-						int eq = buildEqualityProp(undoing.getAtom().getVariables().get(k), threat.literal.getAtom().getVariables().get(k));
-						conj.add(-eq);
-						List<Integer> disj = new ArrayList<Integer>(clause);
-						disj.add(eq);
-						satFormula.addClause(disj);
-					}
-					conj.add(tprop);
-					satFormula.addClause(conj);
-				} else {
-					satFormula.addClause(clause);
+			// t < p so long as t != p
+			if (!threat.operator.equals(pcl.getProducer().operator) && 
+					!isFiltered(threat.operator, pcl.getProducer().operator)) {
+				int tPrecProp = lc.precedence(propMap.getStepIndex(threat.operator), propMap.getStepIndex(pcl.getProducer().operator));
+				clause.add(tPrecProp);
+				lc.addClause(-tPrecProp, tprop);
+			}
+
+			// c < t
+			if (!isFiltered(pcl.getConsumer().operator, threat.operator)) {
+				int tPrecProp =	lc.precedence(propMap.getStepIndex(pcl.getConsumer().operator), propMap.getStepIndex(threat.operator));
+				clause.add(tPrecProp);
+				lc.addClause(-tPrecProp, tprop);
+			}
+
+			Literal<Variable> undoing = threat.operator.getUndoing(threat.literal.getNegated());
+			// threat can undone by a later postcondition of the same action, if they have the same bindings
+			if (!causalStruct.isGround() && undoing != null) {										
+				List<Integer> conj = new ArrayList<Integer>(); // x1=y1, ..., xn=yn -> tprop
+				for (int k = 0; k < threat.literal.getAtom().getVariables().size(); k++) {
+					// threat var is the same as producer var
+					if (undoing.getAtom().getVariables().get(k).equals(threat.literal.getAtom().getVariables().get(k)))
+						continue;
+					int eq = lc.equality(plan.getVariableId(undoing.getAtom().getVariables().get(k)), 
+							plan.getVariableId(threat.literal.getAtom().getVariables().get(k)));
+					conj.add(-eq);
+					List<Integer> disj = new ArrayList<Integer>(clause);
+					disj.add(eq);
+					lc.addClause(disj);
 				}
+				conj.add(tprop);
+				lc.addClause(conj);
+			} else {
+				lc.addClause(clause);
+			}
+
+		}
+
+		rtl.add(pclProp);
+		lc.addClause(rtl);
+
+		return lc;
+	}
+
+	protected void mergeLinkClauses(LinkClauses lc) {
+		int[] props = new int[lc.nRequests + 1];
+		for (int r = 0; r < lc.nRequests; r++) {
+			int a = lc.requests[3*r + 1];
+			int b = lc.requests[3*r + 2];
+			switch (lc.requests[3*r]) {
+			case LinkClauses.LINK:
+				props[r+1] = propMap.getProducerConsumerProposition(lc.pcl);
+				break;
+			case LinkClauses.EQUALITY:
+				props[r+1] = buildEqualityProp(a, b);
+				break;
+			case LinkClauses.PRECEDENCE:
+				props[r+1] = buildPrecProp(a, b);
+				break;
+			case LinkClauses.THREAT:
+				props[r+1] = buildThreatProp(lc.pcl, lc.threats.get(a));
+				break;
+			default:
+				throw new IllegalStateException("Unknown request: " + lc.requests[3*r]);
+			}
+		}
+
+		int[] lits = lc.clauses.getLiterals();
+		for (int c = 0; c < lc.clauses.size(); c++) {
+			int start = lc.clauses.getClauseStart(c);
+			int[] clause = new int[lc.clauses.getClauseLength(c)];
+			for (int i = 0; i < clause.length; i++) {
+				int lit = lits[start + i];
+				clause[i] = lit > 0 ? props[lit] : -props[-lit];
+			}
+			satFormula.addClause(clause);
+		}
+	}
+
+	/*
+	 * The clauses of one causal link, over placeholder propositions 1..nRequests.
+	 */
+	protected static class LinkClauses {
+
+		private static final int LINK = 0;
+		private static final int EQUALITY = 1;
+		private static final int PRECEDENCE = 2;
+		private static final int THREAT = 3;
+
+		private final PcLink pcl;
+		private final ClauseArena clauses;
+		private final List<Threat> threats;
+		private int[] requests; // (kind, a, b) triples
+		private int nRequests;
+
+		private LinkClauses(PcLink pcl) {
+			this.pcl = pcl;
+			clauses = new ClauseArena(16, 64);
+			threats = new ArrayList<Threat>();
+			requests = new int[24];
+			nRequests = 0;
+		}
+
+		private int request(int kind, int a, int b) {
+			if (3 * nRequests + 3 > requests.length)
+				requests = Arrays.copyOf(requests, 2 * requests.length);
+			requests[3*nRequests] = kind;
+			requests[3*nRequests + 1] = a;
+			requests[3*nRequests + 2] = b;
+			return ++nRequests;
+		}
+
+		private int link() {
+			return request(LINK, 0, 0);
+		}
 
+		private int equality(int v1, int v2) {
+			return request(EQUALITY, v1, v2);
+		}
+
+		private int precedence(int i, int j) {
+			return request(PRECEDENCE, i, j);
+		}
+
+		private int threat(Threat threat) {
+			threats.add(threat);
+			return request(THREAT, threats.size() - 1, 0);
+		}
+
+		private void addClause(int ... clause) {
+			clauses.addClause(clause);
+		}
+
+		private void addClause(List<Integer> clause) {
+			clauses.addClause(clause);
+		}
+	}
+
+	/*
+	 * Builds a closure whose clauses are independent across rows, merging the rows 
+	 * into the formula in row order. The builders must only read the proposition map.
+	 */
+	protected void buildRowClauses(int nRows, final RowClauseBuilder builder) {
+		if (options.nThreads <= 1 || nRows < 2 * options.nThreads) {
+			ClauseArena clauses = new ClauseArena();
+			for (int row = 0; row < nRows; row++) {
+				clauses.clear();
+				builder.buildRow(row, clauses);
+				addClauses(clauses);
 			}
+			return;
+		}
 
-			rtl.add(pclProp);
-			satFormula.addClause(rtl);
+		// a bounded number of rows at a time, to bound the memory held in arenas
+		ForkJoinPool pool = new ForkJoinPool(options.nThreads);
+		try {
+			int wave = 4 * options.nThreads;
+			for (int first = 0; first < nRows; first += wave) {
+				List<Callable<ClauseArena>> tasks = new ArrayList<Callable<ClauseArena>>();
+				for (int row = first; row < Math.min(first + wave, nRows); row++) {
+					final int r = row;
+					tasks.add(measured(new Callable<ClauseArena>() {
+						@Override
+						public ClauseArena call() {
+							ClauseArena clauses = new ClauseArena();
+							builder.buildRow(r, clauses);
+							return clauses;
+						}
+					}));
+				}
 
+				for (Future<ClauseArena> future : pool.invokeAll(tasks))
+					addClauses(future.get());
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
 		}
 	}
 
+	/*
+	 * Adds the CPU time and allocation of a task to the current phase when a pool worker 
+	 * runs it. A task run by the encoding thread while it waits is already counted.
+	 */
+	protected <T> Callable<T> measured(final Callable<T> task) {
+		if (stats == null)
+			return task;
+
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				if (!(Thread.currentThread() instanceof ForkJoinWorkerThread))
+					return task.call();
+
+				long cpuTime = -TimeUtils.getCpuTime();
+				long allocated = -TimeUtils.getAllocatedBytes();
+				try {
+					return task.call();
+				} finally {
+					stats.addWorkerUsage(cpuTime + TimeUtils.getCpuTime(), allocated + TimeUtils.getAllocatedBytes());
+				}
+			}
+		};
+	}
+
+	private void addClauses(ClauseArena clauses) {
+		for (int c = 0; c < clauses.size(); c++)
+			satFormula.addClause(clauses.getClause(c));
+	}
+
+	protected interface RowClauseBuilder {
+		void buildRow(int row, ClauseArena clauses);
+	}
+
 
 	protected void buildTotalOrderConstraints() {
-		for (Operator<Variable> op1 : plan.getPlanSteps()) {
-			for (Operator<Variable> op2 : plan.getPlanSteps()) {
-				if (op1.equals(op2))
+		int n = plan.getPlanSteps().size();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i == j)
 					continue;
 
-				if (propMap.getPrecedenceProposition(op2, op1) == null)
-					buildPrecProp(op2, op1);
-				if (propMap.getPrecedenceProposition(op1, op2) == null)
-					buildPrecProp(op1, op2);
-
-				int p21 = propMap.getPrecedenceProposition(op2, op1);
-				int p12 = propMap.getPrecedenceProposition(op1, op2);
+				int p21 = buildPrecProp(j, i);
+				int p12 = buildPrecProp(i, j);
 
 				// at least one must be true
 				satFormula.addClause(p21, p12);
@@ -472,59 +786,298 @@ public class PcToCnfEncoder {
 	 * ACYCLICITY CONSTRAINTS
 	 */
 	protected void buildPrecClosureConstraints() {
-		if (options.acyclOpt == AcyclicityOpt.ATOM) {
+		if (options.acyclOpt == AcyclicityOpt.ATOM && options.csOpt == CausalStructureOpt.DEORDER && options.optTransClosure
+				&& options.outOpt.equals(OutputOpt.PARTIAL_ORDER)) {
+			buildDeorderTransitivity();
+		}
+		else if (options.acyclOpt == AcyclicityOpt.ATOM) {
 			buildAtomAcyclicity();
 		}
 		else if (options.acyclOpt == AcyclicityOpt.BINARY) {
 			buildBinaryAcyclicity();
 		}
+		else if (options.acyclOpt == AcyclicityOpt.ELIMINATION) {
+			buildEliminationAcyclicity();
+		}
+		else if (options.acyclOpt == AcyclicityOpt.LAZY) {
+			buildAntisymmetryConstraints();
+		}
+	}
+
+	/*
+	 * Only excludes 2-cycles. Transitivity, and so acyclicity, is left to be added on 
+	 * demand once a model violates it.
+	 */
+	protected void buildAntisymmetryConstraints() {
+		int n = plan.getPlanSteps().size();
+		for (int i = 0; i < n; i++) {
+			for (int j = i+1; j < n; j++) {
+				int p12 = propMap.getPrecedenceProposition(i, j);
+				int p21 = propMap.getPrecedenceProposition(j, i);
+				if (p12 != 0 && p21 != 0)
+					satFormula.addClause(-p12, -p21);
+			}
+		}
 	}
 
 	protected void buildAtomAcyclicity() {
+		int n = plan.getPlanSteps().size();
+		buildTransitivePrecProps();
 
-		// build extra props
-		for (Operator<Variable> op1 : plan.getPlanSteps()) {
-			for (Operator<Variable> op2 : plan.getPlanSteps()) {
-				if (op1.equals(op2) || (propMap.getPrecedenceProposition(op2, op1) == null && options.optTransClosure))
+		// close, each middle step i is a row. The props all exist by now, so rows are independent
+		buildRowClauses(n, new RowClauseBuilder() {
+			@Override
+			public void buildRow(int i, ClauseArena clauses) {
+				buildAtomAcyclicityRow(i, clauses);
+			}
+		});
+	}
+
+	/*
+	 * When deordering to a partial order, every precedence prop respects the order of 
+	 * the input plan, so any relation is acyclic and only the forward transitivity clauses j < i < l are 
+	 * needed, for the objective. Triples that start at init or end at goal, but not 
+	 * both, are skipped, as their conclusion is already a unit clause.
+	 */
+	protected void buildDeorderTransitivity() {
+		int n = plan.getPlanSteps().size();
+		buildTransitivePrecProps();
+
+		buildRowClauses(n, new RowClauseBuilder() {
+			@Override
+			public void buildRow(int i, ClauseArena clauses) {
+				buildDeorderTransitivityRow(i, clauses);
+			}
+		});
+	}
+
+	protected void buildDeorderTransitivityRow(int i, ClauseArena clauses) {
+		int n = propMap.getNumSteps();
+		int init = propMap.getStepIndex(plan.getInitAction());
+		int goal = propMap.getStepIndex(plan.getGoalAction());
+
+		int[] preds = new int[n];
+		int nPreds = getAdjacentSteps(i, false, false, preds);
+		if (nPreds == 0)
+			return;
+		int[] succs = new int[n];
+		int nSuccs = getAdjacentSteps(i, true, false, succs);
+
+		for (int a = 0; a < nPreds; a++) {
+			int j = preds[a];
+			int p21 = propMap.getPrecedenceProposition(j, i);
+			for (int b = 0; b < nSuccs; b++) {
+				int l = succs[b];
+				if ((j == init) != (l == goal))
 					continue;
 
-				for (Operator<Variable> op3 : plan.getPlanSteps()) {
-					if (op3.equals(op2) || op3.equals(op1) || (propMap.getPrecedenceProposition(op1, op3) == null && options.optTransClosure))
-						continue;
+				int p23 = propMap.getPrecedenceProposition(j, l);
+				if (p23 == 0)
+					continue;
 
-					buildPrecProp(op2, op3);
+				clauses.addClause(-p21, -propMap.getPrecedenceProposition(i, l), p23);
+			}
+		}
+	}
+
+	/*
+	 * Adds a prop for every j < l such that j < i and i < l have props, for some i. 
+	 * Visits the steps in order, so the numbering is deterministic.
+	 */
+	protected void buildTransitivePrecProps() {
+		int n = plan.getPlanSteps().size();
+		int[] preds = new int[n];
+		int[] succs = new int[n];
+
+		// build extra props, walking j -> i -> l paths through each middle step i.
+		// Props added while i is the middle step never involve i, so its
+		// predecessors and successors are fixed for the duration of the iteration.
+		for (int i = 0; i < n; i++) {
+			int nPreds = getAdjacentSteps(i, false, !options.optTransClosure, preds);
+			if (nPreds == 0)
+				continue;
+			int nSuccs = getAdjacentSteps(i, true, !options.optTransClosure, succs);
+
+			for (int a = 0; a < nPreds; a++) {
+				int j = preds[a];
+				for (int b = 0; b < nSuccs; b++) {
+					int l = succs[b];
+					if (l != j)
+						buildPrecProp(j, l);
 				}
 			}
 		}
+	}
 
-		// close
-		for (Operator<Variable> op1 : plan.getPlanSteps()) {
-			for (Operator<Variable> op2 : plan.getPlanSteps()) {
-				if (op1.equals(op2) || propMap.getPrecedenceProposition(op2, op1) == null)
+	protected void buildAtomAcyclicityRow(int i, ClauseArena clauses) {
+		int n = propMap.getNumSteps();
+		int[] preds = new int[n];
+		int nPreds = getAdjacentSteps(i, false, false, preds);
+		if (nPreds == 0)
+			return;
+		int[] succs = new int[n];
+		int nSuccs = getAdjacentSteps(i, true, false, succs);
+
+		for (int a = 0; a < nPreds; a++) {
+			int j = preds[a];
+			int p21 = propMap.getPrecedenceProposition(j, i);
+
+			// at least one must be false
+			int p12 = propMap.getPrecedenceProposition(i, j);
+			if (p12 != 0)
+				clauses.addClause(-p12, -p21);
+
+			for (int b = 0; b < nSuccs; b++) {
+				int l = succs[b];
+				if (l == j)
 					continue;
-				int p21 = propMap.getPrecedenceProposition(op2, op1);
 
-				// at least one must be false
-				if (propMap.getPrecedenceProposition(op1, op2) != null) {	
-					int p12 = propMap.getPrecedenceProposition(op1, op2);
-					satFormula.addClause(-p12, -p21);
+				int p23 = propMap.getPrecedenceProposition(j, l);
+				if (p23 == 0)
+					continue;
+
+				clauses.addClause(-p21, -propMap.getPrecedenceProposition(i, l), p23);
+			}
+		}
+	}
+
+	/**
+	 * Collects, in ascending order, the steps that step i has a precedence
+	 * proposition to (successors) or from (predecessors). If all is true, every
+	 * other step is collected regardless of whether the proposition exists.
+	 */
+	private int getAdjacentSteps(int i, boolean successors, boolean all, int[] steps) {
+		int n = propMap.getNumSteps();
+		int count = 0;
+		for (int j = 0; j < n; j++) {
+			if (j == i)
+				continue;
+			if (all || (successors ? propMap.getPrecedenceProposition(i, j) : propMap.getPrecedenceProposition(j, i)) != 0)
+				steps[count++] = j;
+		}
+		return count;
+	}
+
+	/*
+	 * Acyclicity and transitivity by vertex elimination. The precedence props are 
+	 * first closed, so that every pair reachable through props has one, and then 
+	 * steps are eliminated in min-degree order, making the remaining neighbours of 
+	 * each eliminated step adjacent. The transitivity clauses of every triangle of 
+	 * this chordal fill graph are added, which closes the whole relation, so every 
+	 * path is reflected in the prop of its endpoints and the objective counts the 
+	 * real transitive relation. With the antisymmetry clauses, this excludes cycles. 
+	 * Clauses are only added for triangles of the fill graph, rather than for every 
+	 * 2-path, which only saves clauses when the closed candidate graph is sparse.
+	 */
+	protected void buildEliminationAcyclicity() {
+		int n = plan.getPlanSteps().size();
+		buildTransitivePrecProps();
+		buildReachablePrecProps();
+		buildAntisymmetryConstraints();
+
+		BitSet[] adjacent = new BitSet[n];
+		int[] degree = new int[n];
+		for (int i = 0; i < n; i++) {
+			adjacent[i] = new BitSet(n);
+			for (int j = 0; j < n; j++) {
+				if (j != i && isPrecedenceAdjacent(i, j))
+					adjacent[i].set(j);
+			}
+			degree[i] = adjacent[i].cardinality();
+		}
+
+		boolean[] eliminated = new boolean[n];
+		int[] neighbours = new int[n];
+		for (int e = 0; e < n; e++) {
+			int v = -1;
+			for (int i = 0; i < n; i++) {
+				if (!eliminated[i] && (v == -1 || degree[i] < degree[v]))
+					v = i;
+			}
+			eliminated[v] = true;
+
+			int nNeighbours = 0;
+			for (int u = adjacent[v].nextSetBit(0); u >= 0; u = adjacent[v].nextSetBit(u+1)) {
+				if (!eliminated[u]) {
+					neighbours[nNeighbours++] = u;
+					degree[u]--;
 				}
+			}
 
-				for (Operator<Variable> op3 : plan.getPlanSteps()) {
-					if (op3.equals(op2) || op3.equals(op1) || 
-							propMap.getPrecedenceProposition(op1, op3) == null || 
-							propMap.getPrecedenceProposition(op2, op3) == null)
-						continue;
+			for (int a = 0; a < nNeighbours; a++) {
+				int u = neighbours[a];
+				for (int b = a+1; b < nNeighbours; b++) {
+					int w = neighbours[b];
+					if (!adjacent[u].get(w)) {
+						adjacent[u].set(w);
+						adjacent[w].set(u);
+						degree[u]++;
+						degree[w]++;
+					}
+
+					// every 2-path of the triangle
+					addTransitivityClause(u, v, w);
+					addTransitivityClause(w, v, u);
+					addTransitivityClause(v, u, w);
+					addTransitivityClause(w, u, v);
+					addTransitivityClause(u, w, v);
+					addTransitivityClause(v, w, u);
+				}
+			}
+		}
+	}
 
-					int p13 = propMap.getPrecedenceProposition(op1, op3);
-					int p23 = propMap.getPrecedenceProposition(op2, op3);
+	/*
+	 * i < j & j < l -> i < l, if all three props exist.
+	 */
+	private void addTransitivityClause(int i, int j, int l) {
+		int p12 = propMap.getPrecedenceProposition(i, j);
+		int p23 = propMap.getPrecedenceProposition(j, l);
+		int p13 = propMap.getPrecedenceProposition(i, l);
+		if (p12 != 0 && p23 != 0 && p13 != 0)
+			satFormula.addClause(-p12, -p23, p13);
+	}
 
-					satFormula.addClause(-p21, -p13, p23);
+	/*
+	 * Adds a prop for every pair of steps joined by a path of props, so that the 
+	 * props are closed under 2-paths.
+	 */
+	protected void buildReachablePrecProps() {
+		int n = plan.getPlanSteps().size();
+		BitSet[] successors = new BitSet[n];
+		for (int i = 0; i < n; i++) {
+			successors[i] = new BitSet(n);
+			for (int j = 0; j < n; j++) {
+				if (j != i && propMap.getPrecedenceProposition(i, j) != 0)
+					successors[i].set(j);
+			}
+		}
+
+		int[] stack = new int[n];
+		for (int i = 0; i < n; i++) {
+			BitSet reached = new BitSet(n);
+			int size = 0;
+			stack[size++] = i;
+			while (size > 0) {
+				int j = stack[--size];
+				for (int l = successors[j].nextSetBit(0); l >= 0; l = successors[j].nextSetBit(l+1)) {
+					if (!reached.get(l)) {
+						reached.set(l);
+						stack[size++] = l;
+					}
 				}
 			}
+			for (int l = reached.nextSetBit(0); l >= 0; l = reached.nextSetBit(l+1)) {
+				if (l != i)
+					buildPrecProp(i, l);
+			}
 		}
 	}
 
+	private boolean isPrecedenceAdjacent(int i, int j) {
+		return propMap.getPrecedenceProposition(i, j) != 0 || propMap.getPrecedenceProposition(j, i) != 0;
+	}
+
 	protected void buildBinaryAcyclicity() {
 		// op1 < op2 and op2 < op3 then op1 < op3
 		for (int i = 0; i < plan.getPlanSteps().size(); i++) {
@@ -533,12 +1086,12 @@ public class PcToCnfEncoder {
 			for (int j = 0; j < plan.getPlanSteps().size(); j++) {
 
 				Operator<Variable> op2 = plan.getPlanSteps().get(j);
-				if (i == j || propMap.getPrecedenceProposition(op1, op2) == null) // not comparable
+				if (i == j || propMap.getPrecedenceProposition(i, j) == 0) // not comparable
 					continue;		
 
 				// p12 <-> binary comparison
 				for (int k = 1; k <= opEncodingBits; k++) {
-					int p12k = propMap.getPrecedenceProposition(op1, op2, k);
+					int p12k = propMap.getPrecedenceProposition(i, j, k);
 					if (k == 1) {
 						int op1k = propMap.getOperatorIdxEncodingProp(op1, k);
 						int op2k = propMap.getOperatorIdxEncodingProp(op2, k);
@@ -551,7 +1104,7 @@ public class PcToCnfEncoder {
 						satFormula.addClause(-op2k, op1k, p12k);
 					}
 					else {
-						int p12km1 = propMap.getPrecedenceProposition(op1, op2, k-1);
+						int p12km1 = propMap.getPrecedenceProposition(i, j, k-1);
 						int op1k = propMap.getOperatorIdxEncodingProp(op1, k);
 						int op2k = propMap.getOperatorIdxEncodingProp(op2, k);
 
@@ -567,10 +1120,10 @@ public class PcToCnfEncoder {
 					}
 				}
 
-				if (j > i && propMap.getPrecedenceProposition(op2, op1) != null) {
+				if (j > i && propMap.getPrecedenceProposition(j, i) != 0) {
 					// at least one must be false
-					int p12 = propMap.getPrecedenceProposition(op1, op2);
-					int p21 = propMap.getPrecedenceProposition(op2, op1);
+					int p12 = propMap.getPrecedenceProposition(i, j);
+					int p21 = propMap.getPrecedenceProposition(j, i);
 					satFormula.addClause(-p12, -p21);
 				}
 			}
@@ -596,6 +1149,7 @@ public class PcToCnfEncoder {
 
 		for (int i = 0; i < vars.size(); i++) {
 			Variable v1 = vars.get(i);
+			int id1 = plan.getVariableId(v1);
 			List<Constant> v1Domain = null;
 			if (plan.getInitSub().getVariables().contains(v1)) {
 				v1Domain = new ArrayList<Constant>();
@@ -610,8 +1164,9 @@ public class PcToCnfEncoder {
 
 			for (int j = i + 1; j < vars.size(); j++) {
 				Variable v2 = vars.get(j);
-				Integer eq12 = propMap.getEqualityProposition(v1, v2);
-				if (eq12 != null) { 
+				int id2 = plan.getVariableId(v2);
+				int eq12 = propMap.getEqualityProposition(id1, id2);
+				if (eq12 != 0) { 
 
 					List<Constant> v2Domain = null;
 					if (plan.getInitSub().getVariables().contains(v2)) {
@@ -629,16 +1184,17 @@ public class PcToCnfEncoder {
 					intersection.retainAll(v2Domain);
 					// v1 = v2 <-> (v1 = c1 -> v2 = c1)
 					for (Constant c : intersection) {
+						int cid = plan.getConstantId(c);
 						int[] lr = new int[3];
 						lr[0] = -eq12;
-						lr[1] = -getVariableAssignmentProposition(v1, c);
-						lr[2] = getVariableAssignmentProposition(v2, c);					
+						lr[1] = -getVariableAssignmentProposition(id1, cid);
+						lr[2] = getVariableAssignmentProposition(id2, cid);					
 						satFormula.addClause(lr);
 
 						int[] rl = new int[3];
 						rl[0] = eq12;
-						rl[1] = -getVariableAssignmentProposition(v1, c);
-						rl[2] = -getVariableAssignmentProposition(v2, c);					
+						rl[1] = -getVariableAssignmentProposition(id1, cid);
+						rl[2] = -getVariableAssignmentProposition(id2, cid);					
 						satFormula.addClause(rl);
 					}
 
@@ -648,7 +1204,7 @@ public class PcToCnfEncoder {
 						clause[0] = -eq12;
 						int k = 1;
 						for (Constant c : intersection) {
-							clause[k] = getVariableAssignmentProposition(v1, c);
+							clause[k] = getVariableAssignmentProposition(id1, plan.getConstantId(c));
 							k++;
 						}
 						satFormula.addClause(clause);
@@ -659,7 +1215,7 @@ public class PcToCnfEncoder {
 						clause[0] = -eq12;
 						int k = 1;
 						for (Constant c : intersection) {
-							clause[k] = getVariableAssignmentProposition(v2, c);
+							clause[k] = getVariableAssignmentProposition(id2, plan.getConstantId(c));
 							k++;
 						}
 						satFormula.addClause(clause);
@@ -673,50 +1229,79 @@ public class PcToCnfEncoder {
 
 		List<Variable> vars = new ArrayList<Variable>(plan.getOriginalSub().getVariables());
 		Collections.sort(vars,  Comparators.SYMBOL_COMPARATOR);
-		for (int i = 0; i < vars.size(); i++) {
-			Variable v1 = vars.get(i);
-			for (int j = i+1; j < vars.size(); j++) {
-				if (j == i)
-					continue;
-				Variable v2 = vars.get(j);
-				Integer p12 = propMap.getEqualityProposition(v1, v2);
-				if (p12 == null) {
-					if (options.optTransClosure)
-						continue;
-					else
-						p12 = propMap.addEqualityProposition(v1, v2);
-				}
-
-				for (int k = j+1; k < vars.size(); k++) {
-					if (k == i || k == j)
-						continue;
+		final int[] ids = new int[vars.size()];
+		for (int i = 0; i < vars.size(); i++)
+			ids[i] = plan.getVariableId(vars.get(i));
 
-					Variable v3 = vars.get(k);
-					Integer p13 = propMap.getEqualityProposition(v1, v3);
+		if (!options.optTransClosure)
+			addEqualityClosureProps(ids);
 
-					if (p13 == null) {
-						if (options.optTransClosure)
-							continue;
-						else
-							p13 = propMap.addEqualityProposition(v1, v3);
-					}
+		// each v1 is a row, and the rows only read the proposition map
+		buildRowClauses(ids.length, new RowClauseBuilder() {
+			@Override
+			public void buildRow(int i, ClauseArena clauses) {
+				buildAtomEqualityClosureRow(ids, i, clauses);
+			}
+		});
+	}
 
-					Integer p23 = propMap.getEqualityProposition(v2, v3);
-					if (p23 == null) {
-						if (options.optTransClosure)
-							continue;
-						else
-							p23 = propMap.addEqualityProposition(v2, v3);
-					}
+	/*
+	 * Allocates the equality props in the order the closure loops visit them, so that 
+	 * the numbering does not depend on how the rows are scheduled. Stops as soon as 
+	 * every pair has a prop, which for more than two variables is during the first row.
+	 */
+	private void addEqualityClosureProps(int[] ids) {
+		long missing = 0;
+		for (int i = 0; i < ids.length; i++) {
+			for (int j = i+1; j < ids.length; j++) {
+				if (propMap.getEqualityProposition(ids[i], ids[j]) == 0)
+					missing++;
+			}
+		}
 
-					satFormula.addClause(-p23, -p13, p12);
-					satFormula.addClause(-p12, -p23, p13);
-					satFormula.addClause(-p12, -p13, p23);
+		for (int i = 0; i < ids.length && missing > 0; i++) {
+			for (int j = i+1; j < ids.length && missing > 0; j++) {
+				missing -= addEqualityProp(ids[i], ids[j]);
+				for (int k = j+1; k < ids.length && missing > 0; k++) {
+					missing -= addEqualityProp(ids[i], ids[k]);
+					missing -= addEqualityProp(ids[j], ids[k]);
 				}
 			}
 		}
 	}
 
+	private int addEqualityProp(int v1, int v2) {
+		if (propMap.getEqualityProposition(v1, v2) != 0)
+			return 0;
+		propMap.addEqualityProposition(v1, v2);
+		return 1;
+	}
+
+	protected void buildAtomEqualityClosureRow(int[] ids, int i, ClauseArena clauses) {
+		int v1 = ids[i];
+		for (int j = i+1; j < ids.length; j++) {
+			int v2 = ids[j];
+			int p12 = propMap.getEqualityProposition(v1, v2);
+			if (p12 == 0)
+				continue;
+
+			for (int k = j+1; k < ids.length; k++) {
+				int v3 = ids[k];
+				int p13 = propMap.getEqualityProposition(v1, v3);
+				if (p13 == 0)
+					continue;
+
+				int p23 = propMap.getEqualityProposition(v2, v3);
+				if (p23 == 0)
+					continue;
+
+				clauses.addClause(-p23, -p13, p12);
+				clauses.addClause(-p12, -p23, p13);
+				clauses.addClause(-p12, -p13, p23);
+			}
+		}
+	}
+
 
 	/* 
 	 * VARIABLE DOMAINS
@@ -748,17 +1333,7 @@ public class PcToCnfEncoder {
 				satFormula.addClause(alc);
 
 				// at most one
-				for (int d1 = 0; d1 < domain.size(); d1++) {
-					Constant c1 = domain.get(d1);
-					for (int d2 = d1+1; d2 < domain.size(); d2++) {
-						Constant c2 = domain.get(d2);
-						int[] amo = new int[2];
-						amo[0] = -getVariableAssignmentProposition(v, c1);
-						amo[1] = -getVariableAssignmentProposition(v, c2);
-
-						satFormula.addClause(amo);
-					}
-				}
+				amoEncoder.encode(alc, satFormula);
 			}
 
 			// vars in init 
@@ -800,17 +1375,7 @@ public class PcToCnfEncoder {
 				satFormula.addClause(alc);
 
 				// at most one
-				for (int d1 = 0; d1 < domain.size(); d1++) {
-					Constant c1 = domain.get(d1);
-					for (int d2 = d1+1; d2 < domain.size(); d2++) {
-						Constant c2 = domain.get(d2);
-						int[] amo = new int[2];
-						amo[0] = -getVariableAssignmentProposition(v, c1);
-						amo[1] = -getVariableAssignmentProposition(v, c2);
-
-						satFormula.addClause(amo);
-					}
-				}
+				amoEncoder.encode(alc, satFormula);
 			}
 
 			// vars in init -- all different
@@ -842,7 +1407,7 @@ public class PcToCnfEncoder {
 
 	protected void buildInitGoalOrderingConstraints() {
 
-		if (options.acyclOpt == AcyclicityOpt.ATOM) {
+		if (options.acyclOpt != AcyclicityOpt.BINARY) {
 			// init goal prec props
 			for (int i = 1; i < plan.getPlanSteps().size()-1; i++) {
 				buildPrecProp(plan.getInitAction(), plan.getPlanSteps().get(i));
@@ -856,7 +1421,7 @@ public class PcToCnfEncoder {
 				satFormula.addClause(propMap.getPrecedenceProposition(plan.getPlanSteps().get(i), plan.getGoalAction()));	
 			}
 		}
-		else if (options.acyclOpt == AcyclicityOpt.BINARY) {
+		else {
 			// operator index encoding props
 			for (Operator<Variable> op : plan.getPlanSteps()) {
 				for (int k = 1; k <= opEncodingBits; k++)
@@ -21,15 +21,35 @@
 
 package au.rmit.agtgrp.mrr.encoder;
 
-import au.rmit.agtgrp.mrr.fol.symbol.Variable;
+import java.io.File;
+import java.io.IOException;
+
 import au.rmit.agtgrp.mrr.pct.PoclPlan;
-import au.rmit.agtgrp.mrr.pddl.Operator;
+import au.rmit.agtgrp.mrr.sat.StreamingWeightedSatFormula;
 import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula.WcnfFormat;
 
 public class PcToWcnfEncoder extends PcToCnfEncoder {
 
+	private final File streamFile;
+	private final WcnfFormat format;
+	
 	public PcToWcnfEncoder(CnfEncoderOptions options) {
+		this(options, null);
+	}
+
+	public PcToWcnfEncoder(CnfEncoderOptions options, File streamFile) {
+		this(options, streamFile, WcnfFormat.LEGACY);
+	}
+
+	/*
+	 * If streamFile is not null, clauses are written to it as they are 
+	 * encoded, and the returned formula must be closed to complete the file.
+	 */
+	public PcToWcnfEncoder(CnfEncoderOptions options, File streamFile, WcnfFormat format) {
 		super(options);
+		this.streamFile = streamFile;
+		this.format = format;
 	}
 	
 	@Override
@@ -41,25 +61,61 @@ public class PcToWcnfEncoder extends PcToCnfEncoder {
 	@Override
 	protected void encode() {
 		super.encode();
+		startPhase("soft_ordering");
 		buildSoftOrderingConstraints();
+		endPhase();
 	}
 	
 	@Override
 	protected WeightedSatFormula initSatFormula() {
-		return new WeightedSatFormula(Integer.MAX_VALUE);
+		WeightedSatFormula wsat;
+		if (streamFile == null) {
+			wsat = new WeightedSatFormula(Integer.MAX_VALUE);
+		}
+		else {
+			try {
+				wsat = new StreamingWeightedSatFormula(streamFile, Integer.MAX_VALUE, options.nThreads);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		wsat.setFormat(format);
+		return wsat;
 	}
 
-	private void buildSoftOrderingConstraints() {
+	/**
+	 * Adds step i < step j & step j < step l -> step i < step l to an encoded formula. 
+	 * If i < l has no proposition, one is created together with its soft clause and 
+	 * its antisymmetry clause. Returns the proposition for i < l.
+	 */
+	public int addTransitivityConstraint(int i, int j, int l) {
+		if (i == j || j == l || i == l)
+			throw new IllegalArgumentException("Steps must be distinct: " + i + ", " + j + ", " + l);
+
 		WeightedSatFormula weightedSat = (WeightedSatFormula) super.satFormula;
-		for (int i = 0; i < plan.getPlanSteps().size(); i++) {
-			Operator<Variable> op1 = plan.getPlanSteps().get(i);
-			for (int j = 0; j < plan.getPlanSteps().size(); j++) {
-				Operator<Variable> op2 = plan.getPlanSteps().get(j);
+		int p13 = propMap.getPrecedenceProposition(i, l);
+		if (p13 == 0) {
+			p13 = buildPrecProp(i, l);
+			weightedSat.addWeightedClause(1, -p13);
+
+			int p31 = propMap.getPrecedenceProposition(l, i);
+			if (p31 != 0)
+				weightedSat.addClause(-p13, -p31);
+		}
 
-				if (i == j || propMap.getPrecedenceProposition(op1, op2) == null)
+		weightedSat.addClause(-propMap.getPrecedenceProposition(i, j), -propMap.getPrecedenceProposition(j, l), p13);
+		return p13;
+	}
+
+	private void buildSoftOrderingConstraints() {
+		WeightedSatFormula weightedSat = (WeightedSatFormula) super.satFormula;
+		int n = plan.getPlanSteps().size();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				int p12 = i == j ? 0 : propMap.getPrecedenceProposition(i, j);
+				if (p12 == 0)
 					continue;
 
-				int p12 = propMap.getPrecedenceProposition(op1, op2);
 				weightedSat.addWeightedClause(1, -p12);
 
 			}
@@ -33,6 +33,7 @@ import au.rmit.agtgrp.mrr.fol.Substitution;
 import au.rmit.agtgrp.mrr.fol.function.Constant;
 import au.rmit.agtgrp.mrr.fol.symbol.Symbol;
 import au.rmit.agtgrp.mrr.fol.symbol.Variable;
+import au.rmit.agtgrp.mrr.encoder.PropositionRegistry.PropositionKind;
 import au.rmit.agtgrp.mrr.fol.utils.Comparators;
 import au.rmit.agtgrp.mrr.pct.Consumer;
 import au.rmit.agtgrp.mrr.pct.PcLink;
@@ -69,10 +70,35 @@ public class PropositionMap implements Serializable {
 
 	private final int opEncodingBits;
 
+	// dense step indices and precedence propositions, 0 if absent
+	private final transient List<Operator<Variable>> steps;
+	private final transient Map<Operator<Variable>, Integer> stepIndices;
+	private final int nSteps;
+	private final transient int[] precTable;
+	private transient int[] precBitTable; // bits 1..opEncodingBits-1, allocated on first use
+
+	// equality props keyed by (min, max) variable id, assignment props by (variable, constant) id, 0 if absent
+	private final transient PoclPlan plan;
+	private final int nVars;
+	private final int nConsts;
+	private final transient int[] eqTable;
+	private final transient int[] assTable;
+
+	private final transient PropositionRegistry registry;
+
 	private int p;
 
 	public PropositionMap(PropositionMap copyMe) {
-		this(copyMe.opEncodingBits);
+		this(copyMe.opEncodingBits, copyMe.plan);
+		if (copyMe.precTable != null)
+			System.arraycopy(copyMe.precTable, 0, this.precTable, 0, this.precTable.length);
+		if (copyMe.eqTable != null) {
+			System.arraycopy(copyMe.eqTable, 0, this.eqTable, 0, this.eqTable.length);
+			System.arraycopy(copyMe.assTable, 0, this.assTable, 0, this.assTable.length);
+		}
+		if (copyMe.precBitTable != null)
+			this.precBitTable = Arrays.copyOf(copyMe.precBitTable, copyMe.precBitTable.length);
+		this.registry.copyFrom(copyMe.registry);
 		//this.objsList.addAll(copyMe.objsList);
 		this.objPropMap.putAll(copyMe.objPropMap);
 		this.pclToPropMap.putAll(copyMe.pclToPropMap);
@@ -87,7 +113,46 @@ public class PropositionMap implements Serializable {
 	}
 	
 	public PropositionMap(int opEncodingBits) {
+		this(opEncodingBits, null);
+	}
+
+	/*
+	 * If plan is not null, precedence, equality and assignment propositions are kept 
+	 * in tables indexed by step position and by the plan's variable and constant ids.
+	 */
+	public PropositionMap(int opEncodingBits, PoclPlan plan) {
 		this.opEncodingBits = opEncodingBits;
+		this.plan = plan;
+
+		if (plan != null) {
+			steps = new ArrayList<Operator<Variable>>(plan.getPlanSteps());
+			stepIndices = new HashMap<Operator<Variable>, Integer>();
+			for (int i = 0; i < steps.size(); i++)
+				stepIndices.put(steps.get(i), i);
+			nSteps = steps.size();
+			if ((long) nSteps * nSteps > Integer.MAX_VALUE - 8)
+				throw new IllegalArgumentException("Too many plan steps: " + nSteps);
+			precTable = new int[nSteps * nSteps];
+
+			nVars = plan.getVariables().size();
+			nConsts = plan.getConstants().size();
+			if ((long) nVars * nVars / 2 > Integer.MAX_VALUE - 8 || (long) nVars * nConsts > Integer.MAX_VALUE - 8)
+				throw new IllegalArgumentException("Too many plan variables: " + nVars);
+			eqTable = new int[nVars * (nVars - 1) / 2];
+			assTable = new int[nVars * nConsts];
+		}
+		else {
+			steps = null;
+			stepIndices = null;
+			nSteps = 0;
+			precTable = null;
+			nVars = 0;
+			nConsts = 0;
+			eqTable = null;
+			assTable = null;
+		}
+		precBitTable = null;
+		registry = new PropositionRegistry();
 
 		//objsList = new ArrayList<Object>();
 		objPropMap = new HashBijection<Object,Integer>();
@@ -133,6 +198,7 @@ public class PropositionMap implements Serializable {
 
 		Pair<Operator<Variable>, Integer> pair = Pair.instance(op1, k).intern();
 		opEncodingPropMap.put(pair, p);
+		registry.register(p, PropositionKind.OP_ENCODING, pair);
 		//objsList.add(pair);
 		return p++;
 	}
@@ -145,7 +211,9 @@ public class PropositionMap implements Serializable {
 	}
 
 	public int addVariablePrecProp(Variable v1, Variable v2) {
-		varPrecToPropMap.put(formatPair(v1, v2), p);
+		Pair<Variable, Variable> pair = formatPair(v1, v2);
+		varPrecToPropMap.put(pair, p);
+		registry.register(p, PropositionKind.VARIABLE_PRECEDENCE, pair);
 		//objsList.add(pair);
 		return p++;
 	}
@@ -162,15 +230,20 @@ public class PropositionMap implements Serializable {
 		if (k < 1 || k > opEncodingBits)
 			throw new IllegalArgumentException("Arg: " + k);
 
+		if (precTable != null)
+			return addPrecedenceProposition(getStepIndex(op1), getStepIndex(op2), k);
+
 		if (k == opEncodingBits) {
 			PrecedenceObj p1 = new PrecedenceObj(op1, op2).intern();
 			precToPropMap.put(p1, p);
+			registry.register(p, PropositionKind.PRECEDENCE, p1);
 			//objsList.add(p1);
 			return p++;
 		}
 		else {
 			Triple<Operator<Variable>, Operator<Variable>, Integer> p1 = Triple.instance(op1, op2, k).intern();
 			precEncodingToPropMap.put(p1, p);
+			registry.register(p, PropositionKind.PRECEDENCE_BIT, p1);
 			//objsList.add(p1);
 			return p++;
 		}
@@ -184,15 +257,82 @@ public class PropositionMap implements Serializable {
 		if (k < 1 || k > opEncodingBits)
 			throw new IllegalArgumentException("Arg: " + k);
 
+		if (precTable != null) {
+			Integer i = stepIndices.get(op1);
+			Integer j = stepIndices.get(op2);
+			if (i == null || j == null)
+				return null;
+			int prop = getPrecedenceProposition(i, j, k);
+			return prop == 0 ? null : prop;
+		}
+
 		if (k == opEncodingBits)
 			return precToPropMap.get(new PrecedenceObj(op1, op2).intern());
 		else
 			return precEncodingToPropMap.get(Triple.instance(op1, op2, k).intern());
 	}
 
+	public int getNumSteps() {
+		return nSteps;
+	}
+
+	public Operator<Variable> getStep(int i) {
+		return steps.get(i);
+	}
+
+	public int getStepIndex(Operator<Variable> op) {
+		Integer i = stepIndices.get(op);
+		if (i == null)
+			throw new IllegalArgumentException("Unknown step: " + op);
+		return i;
+	}
+
+	public int addPrecedenceProposition(int i, int j) {
+		return addPrecedenceProposition(i, j, opEncodingBits);
+	}
+
+	public int addPrecedenceProposition(int i, int j, int k) {
+		if (k < 1 || k > opEncodingBits)
+			throw new IllegalArgumentException("Arg: " + k);
+
+		if (k == opEncodingBits) {
+			// also keep the object mapping, for decoding
+			PrecedenceObj p1 = new PrecedenceObj(steps.get(i), steps.get(j)).intern();
+			precToPropMap.put(p1, p);
+			registry.register(p, PropositionKind.PRECEDENCE, p1);
+			precTable[i * nSteps + j] = p;
+		}
+		else {
+			if (precBitTable == null) {
+				if ((long) nSteps * nSteps * (opEncodingBits-1) > Integer.MAX_VALUE - 8)
+					throw new IllegalArgumentException("Too many plan steps for binary precedence encoding: " + nSteps);
+				precBitTable = new int[nSteps * nSteps * (opEncodingBits-1)];
+			}
+			precBitTable[(k-1) * nSteps * nSteps + i * nSteps + j] = p;
+			registry.register(p, PropositionKind.PRECEDENCE_BIT, Triple.instance(steps.get(i), steps.get(j), k));
+		}
+		return p++;
+	}
+
+	/*
+	 * Returns 0 if there is no proposition for i < j.
+	 */
+	public int getPrecedenceProposition(int i, int j) {
+		return precTable[i * nSteps + j];
+	}
+
+	public int getPrecedenceProposition(int i, int j, int k) {
+		if (k == opEncodingBits)
+			return precTable[i * nSteps + j];
+		if (k < 1 || k > opEncodingBits)
+			throw new IllegalArgumentException("Arg: " + k);
+		return precBitTable == null ? 0 : precBitTable[(k-1) * nSteps * nSteps + i * nSteps + j];
+	}
+
 	public int addEncodedObject(Object o) {
 		//objsList.add(o);
 		objPropMap.put(o, p);
+		registry.register(p, PropositionKind.OBJECT, o);
 		return p++;
 	}
 	
@@ -201,72 +341,111 @@ public class PropositionMap implements Serializable {
 	}
 
 	public Object getEncodedObject(int i) {
-		Object o = objPropMap.getKey(i);
-		if (o != null)
-			return o;
-		o = this.assToPropMap.getKey(i);
-		if (o != null)
-			return o;
-		
-		o = this.eqToPropMap.getKey(i);
-		if (o != null)
-			return o;
-		
-		o = this.opEncodingPropMap.getKey(i);
-		if (o != null)
-			return o;
-		
-		o = this.pclToPropMap.getKey(i);
-		if (o != null)
-			return o;
-		
-		o = this.precToPropMap.getKey(i);
-		if (o != null)
-			return o;
-		
-		o = this.threatToPropMap.getKey(i);
-		if (o != null)
-			return o;
-		
-		o = this.varPrecToPropMap.getKey(i);
-		if (o != null)
-			return o;
-		
-		throw new IllegalArgumentException("Cannot find object for proposition " + i);
+		Object o = registry.getPayload(i);
+		if (o == null)
+			throw new IllegalArgumentException("Cannot find object for proposition " + i);
+		return o;
+	}
+
+	public PropositionKind getPropositionKind(int prop) {
+		return registry.getKind(prop);
+	}
+
+	public PropositionRegistry getRegistry() {
+		return registry;
 	}
 	
 	public PrecedenceObj getPrecedenceObj(int prop) {
-		return this.precToPropMap.getKey(prop);
+		return registry.isKind(prop, PropositionKind.PRECEDENCE) ? (PrecedenceObj) registry.getPayload(prop) : null;
 	}
 
 	public int addVariableAssignmentProposition(Variable v, Constant c) {
+		if (assTable != null)
+			return addVariableAssignmentProposition(plan.getVariableId(v), plan.getConstantId(c));
+
 		VariableAssignmentObj pair = new VariableAssignmentObj(v, c).intern();
 		assToPropMap.put(pair, p);
+		registry.register(p, PropositionKind.ASSIGNMENT, pair);
 		//objsList.add(pair);
 		return p++;
 	}
 
 	public Integer getVariableAssignmentProposition(Variable v, Constant c) {
+		if (assTable != null) {
+			int prop = getVariableAssignmentProposition(plan.getVariableId(v), plan.getConstantId(c));
+			return prop == 0 ? null : prop;
+		}
 		return assToPropMap.get(new VariableAssignmentObj(v, c));
 	}
 
+	public int addVariableAssignmentProposition(int v, int c) {
+		// also keep the object mapping, for decoding
+		VariableAssignmentObj pair = new VariableAssignmentObj(plan.getVariables().get(v), plan.getConstants().get(c)).intern();
+		assToPropMap.put(pair, p);
+		registry.register(p, PropositionKind.ASSIGNMENT, pair);
+		assTable[v * nConsts + c] = p;
+		return p++;
+	}
+
+	/*
+	 * Returns 0 if there is no proposition for v = c.
+	 */
+	public int getVariableAssignmentProposition(int v, int c) {
+		return assTable[v * nConsts + c];
+	}
+
 	public VariableAssignmentObj getVariableAssignmentObj(int prop) {
-		return assToPropMap.getKey(prop);
+		return registry.isKind(prop, PropositionKind.ASSIGNMENT) ? (VariableAssignmentObj) registry.getPayload(prop) : null;
 	}
 	
 	public int addEqualityProposition(Variable v1, Variable v2) {
+		if (eqTable != null)
+			return addEqualityProposition(plan.getVariableId(v1), plan.getVariableId(v2));
+
 		EqualityObj pair = formatEqualityObj(new EqualityObj(v1, v2).intern());
 		eqToPropMap.put(pair, p);
+		registry.register(p, PropositionKind.EQUALITY, pair);
 		//objsList.add(pair);
 		return p++;
 	}
 
 	public Integer getEqualityProposition(Variable v1, Variable v2) {
+		if (eqTable != null) {
+			int prop = getEqualityProposition(plan.getVariableId(v1), plan.getVariableId(v2));
+			return prop == 0 ? null : prop;
+		}
 		return eqToPropMap.get(formatEqualityObj(new EqualityObj(v1, v2).intern()));
 	}
 
+	public int addEqualityProposition(int v1, int v2) {
+		int idx = getEqualityIndex(v1, v2);
+		// ids are in name order, so this matches formatEqualityObj
+		EqualityObj pair = new EqualityObj(plan.getVariables().get(Math.min(v1, v2)), 
+				plan.getVariables().get(Math.max(v1, v2))).intern();
+		eqToPropMap.put(pair, p);
+		registry.register(p, PropositionKind.EQUALITY, pair);
+		eqTable[idx] = p;
+		return p++;
+	}
+
+	/*
+	 * Returns 0 if there is no proposition for v1 = v2.
+	 */
+	public int getEqualityProposition(int v1, int v2) {
+		return eqTable[getEqualityIndex(v1, v2)];
+	}
+
+	private static int getEqualityIndex(int v1, int v2) {
+		if (v1 < v2)
+			return (int) ((long) v2 * (v2 - 1) / 2) + v1;
+		else if (v1 > v2)
+			return (int) ((long) v1 * (v1 - 1) / 2) + v2;
+		else
+			throw new IllegalArgumentException(v1 + "," + v2);
+	}
+
 	public EqualityObj getEqualityObj(int prop) {
-		return eqToPropMap.getKey(prop);
+		return registry.isKind(prop, PropositionKind.EQUALITY) ? (EqualityObj) registry.getPayload(prop) : null;
 	}
 
 	private <T extends Symbol> Pair<T, T> formatPair(T v1, T v2) {
@@ -295,6 +474,7 @@ public class PropositionMap implements Serializable {
 
 	public int addProducerConsumerProposition(PcLink pcLink) {
 		pclToPropMap.put(pcLink, p);
+		registry.register(p, PropositionKind.PC_LINK, pcLink);
 		//objsList.add(pcLink);
 		return p++;
 	}
@@ -308,7 +488,7 @@ public class PropositionMap implements Serializable {
 	}
 
 	public PcLink getProducerConsumerLink(int prop) {
-		return pclToPropMap.getKey(prop);
+		return registry.isKind(prop, PropositionKind.PC_LINK) ? (PcLink) registry.getPayload(prop) : null;
 	}
 	
 	public Set<PcLink> getAllPcLinks() {
@@ -318,6 +498,7 @@ public class PropositionMap implements Serializable {
 	public int addThreatProposition(PcLink link, Threat threat) {
 		Pair<PcLink, Threat> thr = Pair.instance(link, threat).intern();
 		threatToPropMap.put(thr, p);
+		registry.register(p, PropositionKind.THREAT, thr);
 		//objsList.add(thr);
 		return p++;
 	}
@@ -330,6 +511,54 @@ public class PropositionMap implements Serializable {
 	public int getNPropositions() {
 		return p-1;
 	}
+
+	/*
+	 * Applies a renumbering indexed by old proposition, such as one produced by 
+	 * PropositionCompactor. Propositions mapped to 0, or beyond the end of the 
+	 * array, are dropped, and the next proposition allocated will be nProps + 1.
+	 */
+	public void renumber(int[] oldToNew, int nProps) {
+		renumber(objPropMap, oldToNew);
+		renumber(pclToPropMap, oldToNew);
+		renumber(threatToPropMap, oldToNew);
+		renumber(eqToPropMap, oldToNew);
+		renumber(assToPropMap, oldToNew);
+		renumber(precToPropMap, oldToNew);
+		renumber(opEncodingPropMap, oldToNew);
+		renumber(precEncodingToPropMap, oldToNew);
+		renumber(varPrecToPropMap, oldToNew);
+
+		renumber(precTable, oldToNew);
+		renumber(precBitTable, oldToNew);
+		renumber(eqTable, oldToNew);
+		renumber(assTable, oldToNew);
+
+		registry.renumber(oldToNew);
+		p = nProps + 1;
+	}
+
+	private static <K> void renumber(Bijection<K, Integer> map, int[] oldToNew) {
+		List<K> keys = new ArrayList<K>(map.keySet());
+		int[] props = new int[keys.size()];
+		for (int i = 0; i < props.length; i++)
+			props[i] = map.get(keys.get(i));
+
+		map.clear();
+		for (int i = 0; i < props.length; i++) {
+			int q = props[i] < oldToNew.length ? oldToNew[props[i]] : 0;
+			if (q != 0)
+				map.put(keys.get(i), q);
+		}
+	}
+
+	private static void renumber(int[] table, int[] oldToNew) {
+		if (table == null)
+			return;
+		for (int i = 0; i < table.length; i++) {
+			if (table[i] != 0)
+				table[i] = table[i] < oldToNew.length ? oldToNew[table[i]] : 0;
+		}
+	}
 	
 	public Plan decodeModel(int[] soln, PoclPlan plan) {
 		if (soln.length != getNPropositions())
@@ -350,16 +579,15 @@ public class PropositionMap implements Serializable {
 			if (prop == 0)
 				throw new IllegalArgumentException("Solution contains 0");
 
-			PrecedenceObj prec = getPrecedenceObj(prop);		
-			if (prec != null && prop > 0) {
+			PropositionKind kind = registry.getKind(prop);
+			if (kind == PropositionKind.PRECEDENCE) {
+				PrecedenceObj prec = (PrecedenceObj) registry.getPayload(prop);
 				GraphUtils.addAndCloseTransitive(precGraph, prec.getFirst(), prec.getSecond());
 			}
-
-			VariableAssignmentObj vAssigment = getVariableAssignmentObj(prop);
-			if (vAssigment != null && prop > 0) {	
+			else if (kind == PropositionKind.ASSIGNMENT) {	
+				VariableAssignmentObj vAssigment = (VariableAssignmentObj) registry.getPayload(prop);
 				subMap.put(vAssigment.getFirst(), vAssigment.getSecond());
 			}
-			
 		}
 		
 		// order and bind steps
@@ -386,7 +614,7 @@ public class PropositionMap implements Serializable {
 				throw new IllegalArgumentException("Solution contains 0");
 
 			PrecedenceObj prec = getPrecedenceObj(prop);		
-			if (prec != null && prop > 0)
+			if (prec != null)
 				GraphUtils.addAndCloseTransitive(precGraph, prec.getFirst(), prec.getSecond());		
 		}
 		
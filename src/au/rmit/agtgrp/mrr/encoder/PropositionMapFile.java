@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.encoder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import au.rmit.agtgrp.mrr.fol.symbol.Variable;
+import au.rmit.agtgrp.mrr.pddl.Operator;
+import au.rmit.agtgrp.mrr.utils.FileUtils;
+
+/**
+ * A compact binary file holding the precedence and equality propositions needed 
+ * to decode a model. Steps are stored by their index in the plan and variables 
+ * by an index into a string table of names.
+ * 
+ * Layout, big-endian: magic, version, number of steps, number of strings, the 
+ * strings (length then UTF-8 bytes), the step names as string indices, then the 
+ * precedence and equality records, each a count followed by (prop, first, second) 
+ * triples sorted by prop.
+ */
+public class PropositionMapFile {
+
+	public static final int MAGIC = 0x4d524d50; // "MRMP"
+	public static final int VERSION = 1;
+
+	private static final int RECORD_BYTES = 12;
+
+	public static void write(File file, PropositionMap propMap, int nThreads) throws IOException {
+		List<String> strings = new ArrayList<String>();
+		Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+		int nSteps = propMap.getNumSteps();
+		int[] stepNames = new int[nSteps];
+		for (int i = 0; i < nSteps; i++)
+			stepNames[i] = getStringId(propMap.getStep(i).getName(), strings, stringIds);
+
+		int[] precs = new int[propMap.getPrecedencePropositionMap().size() * 3];
+		int k = 0;
+		for (Entry<PrecedenceObj, Integer> entry : propMap.getPrecedencePropositionMap().entrySet()) {
+			precs[k++] = entry.getValue();
+			precs[k++] = propMap.getStepIndex(entry.getKey().getFirst());
+			precs[k++] = propMap.getStepIndex(entry.getKey().getSecond());
+		}
+		sortRecords(precs);
+
+		int[] eqs = new int[propMap.getVarEqualityPropositionMap().size() * 3];
+		k = 0;
+		for (Entry<EqualityObj, Integer> entry : propMap.getVarEqualityPropositionMap().entrySet()) {
+			eqs[k++] = entry.getValue();
+			eqs[k++] = getStringId(entry.getKey().getFirst().getName(), strings, stringIds);
+			eqs[k++] = getStringId(entry.getKey().getSecond().getName(), strings, stringIds);
+		}
+		sortRecords(eqs);
+
+		DataOutputStream out = new DataOutputStream(FileUtils.newOutputStream(file, nThreads));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(nSteps);
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			for (int i = 0; i < nSteps; i++)
+				out.writeInt(stepNames[i]);
+
+			out.writeInt(precs.length / 3);
+			for (int i = 0; i < precs.length; i++)
+				out.writeInt(precs[i]);
+			out.writeInt(eqs.length / 3);
+			for (int i = 0; i < eqs.length; i++)
+				out.writeInt(eqs[i]);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int getStringId(String s, List<String> strings, Map<String, Integer> stringIds) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	private static void sortRecords(int[] records) {
+		long[] keys = new long[records.length / 3];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = ((long) records[3*i] << 32) | i;
+		Arrays.sort(keys);
+
+		int[] sorted = new int[records.length];
+		for (int i = 0; i < keys.length; i++)
+			System.arraycopy(records, 3 * (int) keys[i], sorted, 3*i, 3);
+		System.arraycopy(sorted, 0, records, 0, records.length);
+	}
+
+	/*
+	 * Uncompressed files are memory mapped, compressed files are read onto the heap.
+	 */
+	public static PropositionMapFile read(File file) throws IOException {
+		ByteBuffer buffer = null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			boolean compressed = raf.length() >= 2 && raf.read() == 0x1f && raf.read() == 0x8b;
+			if (!compressed) {
+				FileChannel channel = raf.getChannel();
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new IOException("Proposition map file is too large: " + file);
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		} finally {
+			raf.close();
+		}
+
+		if (buffer == null) {
+			InputStream in = FileUtils.newInputStream(file);
+			try {
+				buffer = ByteBuffer.wrap(readFully(in));
+			} finally {
+				in.close();
+			}
+		}
+		return new PropositionMapFile(file, buffer);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		byte[] bytes = new byte[1 << 16];
+		int len = 0;
+		int n;
+		while ((n = in.read(bytes, len, bytes.length - len)) >= 0) {
+			len += n;
+			if (len == bytes.length) {
+				if (bytes.length == Integer.MAX_VALUE - 8)
+					throw new IOException("Proposition map file is too large");
+				bytes = Arrays.copyOf(bytes, (int) Math.min((long) bytes.length * 2, Integer.MAX_VALUE - 8));
+			}
+		}
+		return Arrays.copyOf(bytes, len);
+	}
+
+	private final ByteBuffer buffer;
+	private final int nSteps;
+	private final String[] strings;
+	private final int stepsStart;
+	private final int nPrecs;
+	private final int precsStart;
+	private final int nEqs;
+	private final int eqsStart;
+
+	private PropositionMapFile(File file, ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.remaining() < 8 || buffer.getInt(0) != MAGIC)
+			throw new IOException(file + " is not a proposition map file");
+		int version = buffer.getInt(4);
+		if (version != VERSION)
+			throw new IOException(file + " was written with proposition map version " + version + 
+					", but this version reads " + VERSION + ". Re-encode the plan.");
+
+		try {
+			buffer.position(8);
+			nSteps = buffer.getInt();
+			strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			stepsStart = buffer.position();
+			buffer.position(stepsStart + 4 * nSteps);
+
+			nPrecs = buffer.getInt();
+			precsStart = buffer.position();
+			buffer.position(precsStart + RECORD_BYTES * nPrecs);
+
+			nEqs = buffer.getInt();
+			eqsStart = buffer.position();
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			throw new IOException(file + " is truncated or corrupt", e);
+		}
+		if (eqsStart + (long) RECORD_BYTES * nEqs != buffer.limit())
+			throw new IOException(file + " is truncated or corrupt");
+	}
+
+	/*
+	 * Throws IllegalArgumentException if the file was not written for these steps.
+	 */
+	public void checkSteps(List<Operator<Variable>> steps) {
+		if (steps.size() != nSteps)
+			throw new IllegalArgumentException("Proposition map has " + nSteps + " steps, plan has " + steps.size());
+		for (int i = 0; i < nSteps; i++) {
+			if (!steps.get(i).getName().equals(getStepName(i)))
+				throw new IllegalArgumentException("Proposition map step " + i + " is " + getStepName(i) + 
+						", plan step is " + steps.get(i).getName());
+		}
+	}
+
+	public int getNumSteps() {
+		return nSteps;
+	}
+
+	public String getStepName(int i) {
+		return strings[buffer.getInt(stepsStart + 4*i)];
+	}
+
+	public int getNumPrecedences() {
+		return nPrecs;
+	}
+
+	public int getPrecedenceProposition(int i) {
+		return buffer.getInt(precsStart + RECORD_BYTES*i);
+	}
+
+	public int getPrecedenceFirst(int i) {
+		return buffer.getInt(precsStart + RECORD_BYTES*i + 4);
+	}
+
+	public int getPrecedenceSecond(int i) {
+		return buffer.getInt(precsStart + RECORD_BYTES*i + 8);
+	}
+
+	public int getNumEqualities() {
+		return nEqs;
+	}
+
+	public int getEqualityProposition(int i) {
+		return buffer.getInt(eqsStart + RECORD_BYTES*i);
+	}
+
+	public String getEqualityFirst(int i) {
+		return strings[buffer.getInt(eqsStart + RECORD_BYTES*i + 4)];
+	}
+
+	public String getEqualitySecond(int i) {
+		return strings[buffer.getInt(eqsStart + RECORD_BYTES*i + 8)];
+	}
+
+}
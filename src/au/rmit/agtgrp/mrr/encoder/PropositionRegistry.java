@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.encoder;
+
+import java.util.Arrays;
+
+/**
+ * Records the kind and payload of every proposition as it is allocated, so that 
+ * a proposition number can be decoded with two array reads. Payloads are numbered 
+ * per kind, in allocation order.
+ */
+public class PropositionRegistry {
+
+	public enum PropositionKind {
+		OBJECT, PC_LINK, THREAT, EQUALITY, ASSIGNMENT, PRECEDENCE, PRECEDENCE_BIT, OP_ENCODING, VARIABLE_PRECEDENCE;
+	}
+
+	private static final PropositionKind[] KINDS = PropositionKind.values();
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// indexed by proposition, kinds[p] is ordinal + 1, or 0 if unregistered
+	private byte[] kinds;
+	private int[] payloadIndices;
+
+	// indexed by kind, then payload index
+	private final Object[][] payloads;
+	private final int[][] props;
+	private final int[] counts;
+
+	public PropositionRegistry() {
+		kinds = new byte[INITIAL_CAPACITY];
+		payloadIndices = new int[INITIAL_CAPACITY];
+		payloads = new Object[KINDS.length][];
+		props = new int[KINDS.length][];
+		counts = new int[KINDS.length];
+		for (int k = 0; k < KINDS.length; k++) {
+			payloads[k] = new Object[16];
+			props[k] = new int[16];
+		}
+	}
+
+	public void copyFrom(PropositionRegistry other) {
+		kinds = Arrays.copyOf(other.kinds, other.kinds.length);
+		payloadIndices = Arrays.copyOf(other.payloadIndices, other.payloadIndices.length);
+		System.arraycopy(other.counts, 0, counts, 0, counts.length);
+		for (int k = 0; k < KINDS.length; k++) {
+			payloads[k] = Arrays.copyOf(other.payloads[k], other.payloads[k].length);
+			props[k] = Arrays.copyOf(other.props[k], other.props[k].length);
+		}
+	}
+
+	public int register(int prop, PropositionKind kind, Object payload) {
+		if (prop < 1)
+			throw new IllegalArgumentException("Illegal proposition: " + prop);
+
+		if (prop >= kinds.length) {
+			int len = Math.max(kinds.length + (kinds.length >> 1), prop + 1);
+			kinds = Arrays.copyOf(kinds, len);
+			payloadIndices = Arrays.copyOf(payloadIndices, len);
+		}
+
+		int k = kind.ordinal();
+		int idx = counts[k]++;
+		if (idx == payloads[k].length) {
+			payloads[k] = Arrays.copyOf(payloads[k], idx + (idx >> 1));
+			props[k] = Arrays.copyOf(props[k], idx + (idx >> 1));
+		}
+		payloads[k][idx] = payload;
+		props[k][idx] = prop;
+
+		kinds[prop] = (byte) (k + 1);
+		payloadIndices[prop] = idx;
+		return prop;
+	}
+
+	/*
+	 * Applies a renumbering indexed by old proposition. Propositions mapped to 0, 
+	 * or beyond the end of the array, are dropped.
+	 */
+	public void renumber(int[] oldToNew) {
+		int max = 0;
+		for (int q : oldToNew)
+			max = Math.max(max, q);
+		kinds = new byte[Math.max(max + 1, INITIAL_CAPACITY)];
+		payloadIndices = new int[kinds.length];
+
+		for (int k = 0; k < KINDS.length; k++) {
+			int n = 0;
+			for (int i = 0; i < counts[k]; i++) {
+				int prop = props[k][i];
+				int q = prop < oldToNew.length ? oldToNew[prop] : 0;
+				if (q == 0)
+					continue;
+				payloads[k][n] = payloads[k][i];
+				props[k][n] = q;
+				kinds[q] = (byte) (k + 1);
+				payloadIndices[q] = n;
+				n++;
+			}
+			Arrays.fill(payloads[k], n, counts[k], null);
+			counts[k] = n;
+		}
+	}
+
+	/*
+	 * Returns null if the proposition has not been registered.
+	 */
+	public PropositionKind getKind(int prop) {
+		if (prop < 1 || prop >= kinds.length || kinds[prop] == 0)
+			return null;
+		return KINDS[kinds[prop] - 1];
+	}
+
+	public boolean isKind(int prop, PropositionKind kind) {
+		return prop > 0 && prop < kinds.length && kinds[prop] == kind.ordinal() + 1;
+	}
+
+	public int getPayloadIndex(int prop) {
+		if (getKind(prop) == null)
+			throw new IllegalArgumentException("Unknown proposition: " + prop);
+		return payloadIndices[prop];
+	}
+
+	/*
+	 * Returns null if the proposition has not been registered.
+	 */
+	public Object getPayload(int prop) {
+		PropositionKind kind = getKind(prop);
+		if (kind == null)
+			return null;
+		return payloads[kind.ordinal()][payloadIndices[prop]];
+	}
+
+	public int getNumPropositions(PropositionKind kind) {
+		return counts[kind.ordinal()];
+	}
+
+	public int getProposition(PropositionKind kind, int payloadIndex) {
+		return props[kind.ordinal()][payloadIndex];
+	}
+
+	public Object getPayload(PropositionKind kind, int payloadIndex) {
+		return payloads[kind.ordinal()][payloadIndex];
+	}
+
+	public int[] getPropositions(PropositionKind kind) {
+		return Arrays.copyOf(props[kind.ordinal()], counts[kind.ordinal()]);
+	}
+
+}
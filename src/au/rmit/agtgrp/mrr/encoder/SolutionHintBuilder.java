@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.encoder;
+
+import java.util.BitSet;
+
+import au.rmit.agtgrp.mrr.encoder.PropositionRegistry.PropositionKind;
+import au.rmit.agtgrp.mrr.fol.function.Constant;
+import au.rmit.agtgrp.mrr.fol.symbol.Variable;
+import au.rmit.agtgrp.mrr.pct.PoclPlan;
+import au.rmit.agtgrp.mrr.pddl.Operator;
+import au.rmit.agtgrp.mrr.sat.ClauseArena;
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+import au.rmit.agtgrp.mrr.utils.collections.Pair;
+
+/**
+ * Builds a model of an encoding from the input plan, to be given to a solver 
+ * as a warm start. Precedence, operator index, equality and assignment 
+ * propositions are read from an ordering of the plan steps and the original 
+ * bindings. Causal link, threat and auxiliary propositions are then derived by 
+ * unit propagation over the hard clauses, and any left free are set false 
+ * unless that leads to a conflict.
+ */
+public class SolutionHintBuilder {
+
+	private final PropositionMap propMap;
+	private final PoclPlan plan;
+
+	private WeightedSatFormula formula;
+	private int nProps;
+	private byte[] vals; // 1 true, -1 false, 0 free
+	private int[] trail;
+	private int nTrail;
+	private int nPropagated;
+
+	// hard clauses, by literal index 2*prop or 2*prop+1 for a negative literal
+	private int[] occStart;
+	private int[] occ;
+
+	public SolutionHintBuilder(PropositionMap propMap, PoclPlan plan) {
+		this.propMap = propMap;
+		this.plan = plan;
+	}
+
+	/**
+	 * Builds a model from the total order of the plan. Returns null if the input 
+	 * plan is not a solution of the formula, e.g. if symmetry breaking excludes it.
+	 */
+	public int[] build(WeightedSatFormula formula) {
+		return build(formula, null);
+	}
+
+	/**
+	 * Builds a model in which step i precedes step j only if successors[i] contains 
+	 * j, where steps are numbered by their index in the plan. The relation must be 
+	 * transitively closed and agree with the plan. Init and goal are ordered before 
+	 * and after every other step. Returns null if there is no such model.
+	 */
+	public int[] build(WeightedSatFormula formula, BitSet[] successors) {
+		this.formula = formula;
+		nProps = formula.getNumProps();
+		vals = new byte[nProps+1];
+		trail = new int[nProps];
+		nTrail = 0;
+		nPropagated = 0;
+		buildOccurrences();
+
+		try {
+			if (!assignPlanPropositions(successors) || !propagateAll())
+				return null;
+
+			for (int prop = 1; prop <= nProps; prop++) {
+				if (vals[prop] != 0)
+					continue;
+				int mark = nTrail;
+				assign(-prop);
+				if (propagate())
+					continue;
+				undo(mark);
+				assign(prop);
+				if (!propagate())
+					return null;
+			}
+
+			int[] model = new int[nProps];
+			for (int prop = 1; prop <= nProps; prop++)
+				model[prop-1] = vals[prop] > 0 ? prop : -prop;
+			return model;
+		} finally {
+			vals = null;
+			trail = null;
+			occStart = null;
+			occ = null;
+		}
+	}
+
+	private boolean assignPlanPropositions(BitSet[] successors) {
+		PropositionRegistry registry = propMap.getRegistry();
+		int last = plan.getPlanSteps().size() - 1;
+
+		for (int prop : registry.getPropositions(PropositionKind.PRECEDENCE)) {
+			PrecedenceObj prec = (PrecedenceObj) registry.getPayload(prop);
+			int i = propMap.getStepIndex(prec.getFirst());
+			int j = propMap.getStepIndex(prec.getSecond());
+			boolean ordered = i < j && (successors == null || i == 0 || j == last || successors[i].get(j));
+			if (!set(prop, ordered))
+				return false;
+		}
+
+		for (int prop : registry.getPropositions(PropositionKind.OP_ENCODING)) {
+			@SuppressWarnings("unchecked")
+			Pair<Operator<Variable>, Integer> bit = (Pair<Operator<Variable>, Integer>) registry.getPayload(prop);
+			int i = propMap.getStepIndex(bit.getFirst());
+			if (!set(prop, ((i >> (bit.getSecond() - 1)) & 1) == 1))
+				return false;
+		}
+
+		for (int prop : registry.getPropositions(PropositionKind.EQUALITY)) {
+			EqualityObj eq = (EqualityObj) registry.getPayload(prop);
+			Constant c1 = plan.getOriginalSub().apply(eq.getFirst());
+			Constant c2 = plan.getOriginalSub().apply(eq.getSecond());
+			if (c1 != null && c2 != null && !set(prop, c1.equals(c2)))
+				return false;
+		}
+
+		for (int prop : registry.getPropositions(PropositionKind.ASSIGNMENT)) {
+			VariableAssignmentObj ass = (VariableAssignmentObj) registry.getPayload(prop);
+			Constant c = plan.getOriginalSub().apply(ass.getFirst());
+			if (c != null && !set(prop, c.equals(ass.getSecond())))
+				return false;
+		}
+
+		return true;
+	}
+
+	private boolean set(int prop, boolean value) {
+		if (prop > nProps) // in no clause
+			return true;
+		int lit = value ? prop : -prop;
+		if (vals[prop] != 0)
+			return value(lit) > 0;
+		assign(lit);
+		return true;
+	}
+
+	private void buildOccurrences() {
+		ClauseArena arena = formula.getArena();
+		int[] lits = arena.getLiterals();
+		occStart = new int[2*nProps + 4];
+		for (int c = 0; c < arena.size(); c++) {
+			if (!formula.isHardClause(c))
+				continue;
+			for (int k = arena.getClauseStart(c); k < arena.getClauseEnd(c); k++)
+				occStart[litIndex(lits[k]) + 2]++;
+		}
+		for (int i = 2; i < occStart.length; i++)
+			occStart[i] += occStart[i-1];
+
+		occ = new int[occStart[occStart.length-1]];
+		for (int c = 0; c < arena.size(); c++) {
+			if (!formula.isHardClause(c))
+				continue;
+			for (int k = arena.getClauseStart(c); k < arena.getClauseEnd(c); k++)
+				occ[occStart[litIndex(lits[k]) + 1]++] = c;
+		}
+	}
+
+	private static int litIndex(int lit) {
+		return lit > 0 ? 2*lit : -2*lit + 1;
+	}
+
+	private int value(int lit) {
+		return lit > 0 ? vals[lit] : -vals[-lit];
+	}
+
+	private void assign(int lit) {
+		vals[Math.abs(lit)] = (byte) (lit > 0 ? 1 : -1);
+		trail[nTrail++] = lit;
+	}
+
+	private void undo(int mark) {
+		while (nTrail > mark)
+			vals[Math.abs(trail[--nTrail])] = 0;
+		nPropagated = Math.min(nPropagated, mark);
+	}
+
+	/*
+	 * Checks every hard clause once, for the units and conflicts of the plan's own 
+	 * propositions, then propagates.
+	 */
+	private boolean propagateAll() {
+		ClauseArena arena = formula.getArena();
+		for (int c = 0; c < arena.size(); c++) {
+			if (formula.isHardClause(c) && !visit(arena, c))
+				return false;
+		}
+		nPropagated = 0;
+		return propagate();
+	}
+
+	private boolean propagate() {
+		ClauseArena arena = formula.getArena();
+		while (nPropagated < nTrail) {
+			int falseLit = -trail[nPropagated++];
+			int idx = litIndex(falseLit);
+			for (int k = occStart[idx]; k < occStart[idx+1]; k++) {
+				if (!visit(arena, occ[k]))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Assigns the last free literal of a clause. Returns false if the clause is falsified.
+	 */
+	private boolean visit(ClauseArena arena, int c) {
+		int[] lits = arena.getLiterals();
+		int free = 0;
+		int nFree = 0;
+		for (int k = arena.getClauseStart(c); k < arena.getClauseEnd(c); k++) {
+			int v = value(lits[k]);
+			if (v > 0)
+				return true;
+			if (v == 0) {
+				free = lits[k];
+				nFree++;
+			}
+		}
+		if (nFree == 1)
+			assign(free);
+		return nFree > 0;
+	}
+
+}
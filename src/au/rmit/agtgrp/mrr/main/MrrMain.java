@@ -25,12 +25,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.kohsuke.args4j.CmdLineException;
@@ -39,10 +39,11 @@ import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.ParserProperties;
 
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions;
-import au.rmit.agtgrp.mrr.encoder.EqualityObj;
 import au.rmit.agtgrp.mrr.encoder.PcToWcnfEncoder;
-import au.rmit.agtgrp.mrr.encoder.PrecedenceObj;
+import au.rmit.agtgrp.mrr.encoder.PropositionMapFile;
+import au.rmit.agtgrp.mrr.encoder.SolutionHintBuilder;
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.AcyclicityOpt;
+import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.AmoEncoding;
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.AsymmetryOpt;
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.CausalStructureOpt;
 import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.EqualityOpt;
@@ -50,6 +51,7 @@ import au.rmit.agtgrp.mrr.encoder.CnfEncoderOptions.OutputOpt;
 import au.rmit.agtgrp.mrr.fol.function.Constant;
 import au.rmit.agtgrp.mrr.fol.symbol.Variable;
 import au.rmit.agtgrp.mrr.pct.CausalStructureFactory;
+import au.rmit.agtgrp.mrr.pct.GreedyDeorderer;
 import au.rmit.agtgrp.mrr.pct.PoclPlan;
 import au.rmit.agtgrp.mrr.pddl.Operator;
 import au.rmit.agtgrp.mrr.pddl.ParallelPlan;
@@ -57,11 +59,17 @@ import au.rmit.agtgrp.mrr.pddl.Plan;
 import au.rmit.agtgrp.mrr.pddl.PddlProblem.PlanResult;
 import au.rmit.agtgrp.mrr.pddl.parser.PddlParser;
 import au.rmit.agtgrp.mrr.pddl.parser.PddlParserException;
+import au.rmit.agtgrp.mrr.sat.PropositionCompactor;
 import au.rmit.agtgrp.mrr.sat.SatFormula;
+import au.rmit.agtgrp.mrr.sat.SatSimplifier;
 import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula.WcnfFormat;
+import au.rmit.agtgrp.mrr.solver.ExternalMaxSatSolver;
+import au.rmit.agtgrp.mrr.solver.LazyTransitivitySolver;
+import au.rmit.agtgrp.mrr.solver.MaxSatSolver;
+import au.rmit.agtgrp.mrr.solver.OllMaxSatSolver;
 import au.rmit.agtgrp.mrr.utils.FileUtils;
 import au.rmit.agtgrp.mrr.utils.FormattingUtils;
-import au.rmit.agtgrp.mrr.utils.collections.Bijection;
 import au.rmit.agtgrp.mrr.utils.collections.Pair;
 import au.rmit.agtgrp.mrr.utils.collections.graph.DirectedGraph;
 import au.rmit.agtgrp.mrr.utils.collections.graph.GraphUtils;
@@ -75,6 +83,9 @@ public class MrrMain {
 		if (Action.DECODE.equals(options.action)) {		
 			decode(options);
 		}
+		else if (Action.GREEDY.equals(options.action)) {
+			deorderGreedily(options);
+		}
 		else {
 			encode(options);
 		}
@@ -97,39 +108,150 @@ public class MrrMain {
 			customPrecGraph = getParallelPlanOrdering((ParallelPlan) plan);	
 		}
 
+		if (options.acyclicity != null)
+			options.algorithm.acyc = options.acyclicity;
+
 		CnfEncoderOptions opts = new CnfEncoderOptions(options.algorithm.asymm, options.algorithm.eq,
 				options.algorithm.acyc, options.algorithm.csOpt, OutputOpt.PARTIAL_ORDER, false, 0,
-				options.algorithm.optTransClosure, options.verbose, customPrecGraph);	
-		PcToWcnfEncoder enc = new PcToWcnfEncoder(opts);	
+				options.algorithm.optTransClosure, options.verbose, customPrecGraph, options.threads, options.amo);	
+		if (options.stream)
+			System.out.println("Streaming weighted CNF to " + options.wcnfFile);
+		PcToWcnfEncoder enc = new PcToWcnfEncoder(opts, options.stream ? options.wcnfFile : null, options.wcnfFormat);	
+		enc.setCollectStats(options.stats);
 		WeightedSatFormula wcnf = enc.encodeConstraints(pcoPlan);
 
 		long encTime = System.currentTimeMillis() - start;
 		System.out.println("Encoding time: " + FormattingUtils.DF_3.format(((double) encTime)/1000));
 
-		Map<PrecedenceObj, Integer> precPropMap = enc.getPropositionMap().getPrecedencePropositionMap();
-		Map<Integer, PrecedenceObj> propPrecMap = new HashMap<Integer, PrecedenceObj>();		
-		for (PrecedenceObj prec : precPropMap.keySet())
-			propPrecMap.put(precPropMap.get(prec), prec);
+		if (options.stats) {
+			File statsFile = new File(options.wcnfFile.getAbsolutePath() + ".stats.csv");
+			System.out.println("Writing encoding statistics to " + statsFile);
+			enc.getStats().writeCsv(statsFile);
+		}
+
+		int[] model = null;
+		if (Action.SOLVE.equals(options.action)) {
+			MaxSatSolver solver;
+			if (options.solver == null)
+				solver = new OllMaxSatSolver(options.verbose);
+			else
+				solver = new ExternalMaxSatSolver(options.solver, options.threads, options.verbose);
+			if (AcyclicityOpt.LAZY.equals(opts.acyclOpt)) {
+				System.out.println("Solving with lazy transitivity constraints");
+				solver = new LazyTransitivitySolver(enc, solver, options.verbose);
+			}
+			else
+				System.out.println("Solving weighted CNF");
+			model = solver.solve(wcnf);
+			if (model == null)
+				throw new IllegalStateException("The encoding has no solution");
+			System.out.println("Solving time: " + FormattingUtils.DF_3.format(((double) System.currentTimeMillis() - start - encTime)/1000));
+		}
+
+		File fixedFile = getAuxiliaryFile(options.wcnfFile, ".fixed");
+		SatSimplifier simplifier = null;
+		if (options.simplify) {
+			System.out.println("Simplifying weighted CNF");
+			simplifier = new SatSimplifier(options.verbose);
+			wcnf = simplifier.simplify(wcnf);
+			System.out.println(simplifier.formatStats());
+		}
+
+		File remapFile = getAuxiliaryFile(options.wcnfFile, ".remap");
+		if (options.compact) {
+			System.out.println("Renumbering propositions");
+			PropositionCompactor compactor = new PropositionCompactor();
+			wcnf = compactor.compact(wcnf, simplifier == null ? new int[0] : simplifier.getFixedLiterals());
+			enc.getPropositionMap().renumber(compactor.getOldToNew(), compactor.getNumProps());
+			if (simplifier != null)
+				simplifier.renumber(compactor.getOldToNew());
+			System.out.println(compactor.formatStats());
+			compactor.writeRemap(remapFile);
+		}
+		else if (remapFile.exists()) {
+			remapFile.delete();
+		}
 
-		Bijection<EqualityObj, Integer> eqPropMap = enc.getPropositionMap().getVarEqualityPropositionMap();
-		Map<Integer, EqualityObj> propBindMap = new HashMap<Integer, EqualityObj>();
-		for (Entry<EqualityObj, Integer> entry : eqPropMap.entrySet()) {
-			propBindMap.put(entry.getValue(), entry.getKey());
+		if (simplifier != null)
+			simplifier.writeReconstructionMap(fixedFile);
+		else if (fixedFile.exists()) {
+			fixedFile.delete();
 		}
 
 		// save wcnf
 		System.out.println("Writing weighted CNF to " + options.wcnfFile);
-		wcnf.writeToFile(options.wcnfFile);	
-		FileUtils.serialize(propPrecMap, new File(options.wcnfFile.getAbsolutePath() + ".prec.dat"));
-		FileUtils.serialize(propBindMap, new File(options.wcnfFile.getAbsolutePath() + ".bind.dat"));
-	
+		wcnf.writeToFile(options.wcnfFile, options.threads);	
+		PropositionMapFile.write(getAuxiliaryFile(options.wcnfFile, ".map"), enc.getPropositionMap(), options.threads);
+
+		File hintFile = getAuxiliaryFile(options.wcnfFile, ".hint");
+		if (options.hint)
+			writeHint(hintFile, plan, pcoPlan, enc, wcnf);
+		else if (hintFile.exists()) {
+			hintFile.delete();
+		}
+
+		if (model != null) {
+			System.out.println("Writing model to " + options.model);
+			SatFormula.writeModel(options.model, model);
+			decode(options, plan);
+		}
 	}
 
 
-	private static void decode(MrrOptions options) {
+	private static void writeHint(File hintFile, Plan plan, PoclPlan pcoPlan, PcToWcnfEncoder enc, WeightedSatFormula wcnf) {
+		System.out.println("Building solution hint");
+		SolutionHintBuilder builder = new SolutionHintBuilder(enc.getPropositionMap(), pcoPlan);
+
+		// the greedy deorder gives a lower cost, if the encoding admits it
+		GreedyDeorderer deorderer = new GreedyDeorderer(plan);
+		deorderer.deorder();
+		int[] hint = builder.build(wcnf, deorderer.getSuccessors());
+		if (hint == null) {
+			System.out.println("The greedy deorder is not a solution of the encoding, using the total order");
+			hint = builder.build(wcnf);
+		}
+		if (hint == null) {
+			System.out.println("The input plan is not a solution of the encoding, no hint written");
+			if (hintFile.exists())
+				hintFile.delete();
+			return;
+		}
+
+		long cost = wcnf.getCost(hint);
+		if (cost < 0)
+			throw new IllegalStateException("Solution hint falsifies a hard clause");
+		System.out.println("Initial upper bound: " + cost);
+		System.out.println("Writing solution hint to " + hintFile);
+		SatFormula.writeModel(hintFile, hint, "SATISFIABLE", cost);
+	}
+
+	private static void deorderGreedily(MrrOptions options) {
+		long start = System.currentTimeMillis();
+
 		System.out.println("Loading PDDL");
 		Plan plan = options.getPlan();
 
+		System.out.println("Deordering greedily");
+		GreedyDeorderer deorderer = new GreedyDeorderer(plan);
+		deorderer.deorder();
+		System.out.println("Causal links: " + deorderer.getNumLinks() + ", threats: " + deorderer.getNumThreats());
+		System.out.println("Deordering time: " + FormattingUtils.DF_3.format(((double) System.currentTimeMillis() - start)/1000));
+
+		int relSize = deorderer.getRelationSize();
+		System.out.println("Order relation size: " + relSize);
+		System.out.println("Flex: " + getFlex(relSize, plan.getPlanSteps().size()-2));
+
+		Map<Variable, Constant> bindings = new HashMap<Variable, Constant>(plan.getSubstitution().getMap());
+		System.out.println("Printing POP to " + options.popFile);
+		FileUtils.writeFile(options.popFile, formatPopString(plan.getPlanSteps(), deorderer.getReducedOrdering(), bindings));
+	}
+
+	private static void decode(MrrOptions options) {
+		System.out.println("Loading PDDL");
+		decode(options, options.getPlan());
+	}
+
+	private static void decode(MrrOptions options, Plan plan) {
 		System.out.println("Decoding model");		
 		// get all ordering constraints
 		DirectedGraph<Operator<Variable>> precGraph = new DirectedGraph<Operator<Variable>>();
@@ -137,27 +259,53 @@ public class MrrMain {
 		Set<Variable> initVars = new HashSet<Variable>(plan.getInitialAction().getParameters());
 		Map<Variable, Constant> bindings = new HashMap<Variable, Constant>(plan.getSubstitution().getMap()); // init to original
 		
-		Map<Integer, PrecedenceObj> propPrecMap = FileUtils.deserialize(new File(options.wcnfFile.getAbsolutePath() + ".prec.dat"));		
-		Map<Integer, EqualityObj> propBindMap = FileUtils.deserialize(new File(options.wcnfFile.getAbsolutePath() + ".bind.dat"));
-
-		int[] soln = SatFormula.loadModel(options.model);
-		for (int prop : soln) {
-			if (prop > 0) {
-				if (propPrecMap.containsKey(prop)) {
-					PrecedenceObj prec = propPrecMap.get(prop);	
-					if (!prec.getFirst().equals(plan.getInitialAction()) && !prec.getSecond().equals(plan.getGoalAction())) {
-						GraphUtils.addAndCloseTransitive(precGraph, prec.getFirst(), prec.getSecond());
-					}
-				} else if (propBindMap.containsKey(prop)){
-					EqualityObj bind = propBindMap.get(prop);
-					if (initVars.contains(bind.getFirst())) {
-						Constant c = plan.getSubstitution().apply(bind.getFirst());
-						bindings.put(bind.getSecond(), c);						
-					}
-					else if (initVars.contains(bind.getSecond())) {
-						Constant c = plan.getSubstitution().apply(bind.getSecond());
-						bindings.put(bind.getFirst(), c);
-					}
+		File mapFile = getAuxiliaryFile(options.wcnfFile, ".map");
+		if (!mapFile.exists() && getAuxiliaryFile(options.wcnfFile, ".prec.dat").exists())
+			throw new IllegalArgumentException("No proposition map " + mapFile + 
+					", the .prec.dat/.bind.dat files were written by an older version. Re-encode the plan.");
+		PropositionMapFile propMap;
+		try {
+			propMap = PropositionMapFile.read(mapFile);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		propMap.checkSteps(plan.getPlanSteps());
+
+		Map<String, Variable> varsByName = new HashMap<String, Variable>();
+		for (Operator<Variable> step : plan.getPlanSteps()) {
+			for (Variable var : step.getVariables())
+				varsByName.put(var.getName(), var);
+		}
+
+		BitSet soln = SatFormula.loadModelBitSet(options.model);
+		File fixedFile = getAuxiliaryFile(options.wcnfFile, ".fixed");
+		if (fixedFile.exists()) {
+			try {
+				SatSimplifier.applyReconstructionMap(soln, fixedFile);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		for (int i = 0; i < propMap.getNumPrecedences(); i++) {
+			if (soln.get(propMap.getPrecedenceProposition(i))) {
+				Operator<Variable> first = plan.getPlanSteps().get(propMap.getPrecedenceFirst(i));
+				Operator<Variable> second = plan.getPlanSteps().get(propMap.getPrecedenceSecond(i));
+				if (!first.equals(plan.getInitialAction()) && !second.equals(plan.getGoalAction())) {
+					GraphUtils.addAndCloseTransitive(precGraph, first, second);
+				}
+			}
+		}
+		for (int i = 0; i < propMap.getNumEqualities(); i++) {
+			if (soln.get(propMap.getEqualityProposition(i))) {
+				Variable first = getVariable(varsByName, propMap.getEqualityFirst(i));
+				Variable second = getVariable(varsByName, propMap.getEqualitySecond(i));
+				if (initVars.contains(first)) {
+					Constant c = plan.getSubstitution().apply(first);
+					bindings.put(second, c);						
+				}
+				else if (initVars.contains(second)) {
+					Constant c = plan.getSubstitution().apply(second);
+					bindings.put(first, c);
 				}
 			}
 		}
@@ -176,6 +324,20 @@ public class MrrMain {
 	}
 
 
+	private static Variable getVariable(Map<String, Variable> varsByName, String name) {
+		Variable var = varsByName.get(name);
+		if (var == null)
+			throw new IllegalArgumentException("Proposition map variable " + name + " is not in the plan");
+		return var;
+	}
+
+	/*
+	 * Files written alongside the wcnf are compressed if the wcnf is.
+	 */
+	public static File getAuxiliaryFile(File wcnfFile, String suffix) {
+		return new File(wcnfFile.getAbsolutePath() + suffix + (FileUtils.isGzipFile(wcnfFile) ? ".gz" : ""));
+	}
+
 	public static String formatPopString(List<Operator<Variable>> steps, DirectedGraph<Operator<Variable>> precGraph, Map<Variable, Constant> bindings) {
 		StringBuilder popSb = new StringBuilder();
 		
@@ -272,7 +434,7 @@ public class MrrMain {
 	}
 
 	public static enum Action {
-		ENCODE, DECODE
+		ENCODE, DECODE, SOLVE, GREEDY
 	}
 
 	public static class MrrOptions {
@@ -298,13 +460,46 @@ public class MrrMain {
 		@Option(name = "--wcnf", usage = "output wcnf file")
 		public File wcnfFile = new File("encoded.wcnf");
 
+		@Option(name = "--wcnf-format", usage = "wcnf output format: LEGACY (p line and top weight) or MSE2022 (h prefixed hard clauses)")
+		public WcnfFormat wcnfFormat = WcnfFormat.LEGACY;
+
+		@Option(name = "--stream", usage = "write clauses to the wcnf file as they are encoded, rather than holding them in memory")
+		public boolean stream;
+
+		@Option(name = "--simplify", usage = "remove duplicate and subsumed clauses, propagate units and eliminate pure literals before writing the wcnf")
+		public boolean simplify;
+
+		@Option(name = "--stats", usage = "write the time, allocation and size of each encoding phase to <wcnf>.stats.csv")
+		public boolean stats;
+
+		@Option(name = "--compact", usage = "renumber propositions densely, dropping those that appear in no clause")
+		public boolean compact;
+
+		@Option(name = "--compress", usage = "gzip the wcnf and map files (implied if the wcnf file name ends in .gz)")
+		public boolean compress;
+
+		@Option(name = "--acyclicity", usage = "override the acyclicity encoding of the algorithm: ATOM, BINARY, ELIMINATION, or LAZY to add transitivity constraints as SOLVE finds them violated")
+		public AcyclicityOpt acyclicity = null;
+
+		@Option(name = "--amo", usage = "at-most-one encoding for variable domains: PAIRWISE, SEQUENTIAL, COMMANDER, PRODUCT or BIMANDER")
+		public AmoEncoding amo = AmoEncoding.PAIRWISE;
+
+		@Option(name = "--hint", usage = "write a model built from the input plan, and its cost as an upper bound, to <wcnf>.hint")
+		public boolean hint;
+
+		@Option(name = "--threads", usage = "number of threads")
+		public int threads = Runtime.getRuntime().availableProcessors();
+
+		@Option(name = "--solver", usage = "external MaxSAT solver command for SOLVE, run with the wcnf file as its last argument (default: the built-in solver)")
+		public String solver = null;
+
 		@Option(name = "--model", usage = "model file")
 		public File model = null;
 
 		@Option(name = "--enc", usage = "optimisation encoding")
 		public OptAlgorithm algorithm = null;
 
-		@Option(name = "--action", usage = "encode to MaxSAT or decode solution to POP", required = true)
+		@Option(name = "--action", usage = "encode to MaxSAT, decode solution to POP, encode, solve and decode, or deorder greedily without a solver", required = true)
 		public Action action = null;
 
 		private Plan plan;
@@ -336,6 +531,43 @@ public class MrrMain {
 				System.exit(1);
 			}
 
+			if (this.compress && !FileUtils.isGzipFile(this.wcnfFile))
+				this.wcnfFile = new File(this.wcnfFile.getPath() + ".gz");
+
+			if (this.stream && FileUtils.isGzipFile(this.wcnfFile) && !WcnfFormat.MSE2022.equals(this.wcnfFormat)) {
+				System.out.println("A compressed wcnf can only be streamed in the " + WcnfFormat.MSE2022 + " format");
+				System.exit(1);
+			}
+
+			if (this.simplify && this.stream) {
+				System.out.println("Simplification cannot be used with a streamed wcnf");
+				System.exit(1);
+			}
+
+			if (this.compact && this.stream) {
+				System.out.println("Renumbering cannot be used with a streamed wcnf");
+				System.exit(1);
+			}
+
+			if (this.hint && this.stream) {
+				System.out.println("A solution hint cannot be built for a streamed wcnf");
+				System.exit(1);
+			}
+
+			if (AcyclicityOpt.LAZY.equals(this.acyclicity) && !Action.SOLVE.equals(this.action)) {
+				System.out.println(AcyclicityOpt.LAZY + " acyclicity omits transitivity constraints, so can only be used with " + Action.SOLVE);
+				System.exit(1);
+			}
+
+			if (Action.SOLVE.equals(this.action)) {
+				if (this.stream || this.simplify || this.compact) {
+					System.out.println("Streaming, simplification and renumbering cannot be used when solving");
+					System.exit(1);
+				}
+				if (this.model == null)
+					this.model = getAuxiliaryFile(this.wcnfFile, ".sol");
+			}
+
 			// print help message if requested
 			if (this.help) {
 				System.out.println(usage);
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.pct;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.rmit.agtgrp.mrr.fol.symbol.Variable;
+import au.rmit.agtgrp.mrr.pddl.Operator;
+import au.rmit.agtgrp.mrr.pddl.Plan;
+import au.rmit.agtgrp.mrr.utils.collections.graph.DirectedGraph;
+
+/**
+ * Deorders a plan in polynomial time, without a solver. Each precondition is 
+ * supported by the causal link of its explanation in the input plan, and each 
+ * threat to a link is resolved in the direction of the input plan. The result 
+ * is a valid deorder, but not necessarily a minimum one, so the size of its 
+ * order relation is an upper bound for MD.
+ */
+public class GreedyDeorderer {
+
+	private final Plan plan;
+	private final List<Operator<Variable>> steps;
+	private final Map<Operator<Variable>, Integer> stepIndices;
+
+	// reach[i] is the set of steps after step i in the closed relation
+	private BitSet[] reach;
+	private int nLinks;
+	private int nThreats;
+
+	public GreedyDeorderer(Plan plan) {
+		this.plan = plan;
+		steps = plan.getPlanSteps();
+		stepIndices = new HashMap<Operator<Variable>, Integer>();
+		for (int i = 0; i < steps.size(); i++)
+			stepIndices.put(steps.get(i), i);
+	}
+
+	public void deorder() {
+		int n = steps.size();
+		BitSet[] succs = new BitSet[n];
+		for (int i = 0; i < n; i++)
+			succs[i] = new BitSet(n);
+
+		CausalStructure links = CausalStructureFactory.getEquivalentPcoConstraints(plan);
+		ThreatMap threatMap = ThreatMap.getThreatMap(steps);
+		nLinks = 0;
+		nThreats = 0;
+		for (PcLink pcl : links) {
+			int p = stepIndices.get(pcl.getProducer().operator);
+			int c = stepIndices.get(pcl.getConsumer().operator);
+			addOrdering(succs, p, c);
+			nLinks++;
+
+			for (Threat threat : threatMap.getGroundThreats(pcl, plan.getSubstitution())) {
+				int t = stepIndices.get(threat.operator);
+				if (t == p)
+					continue;
+				if (t < p)
+					addOrdering(succs, t, p);
+				else if (t > c)
+					addOrdering(succs, c, t);
+				else
+					throw new IllegalStateException("Threat " + threat + " lies between the steps of causal link " + pcl);
+				nThreats++;
+			}
+		}
+
+		// every ordering agrees with the plan, so the plan order is a topological order
+		reach = new BitSet[n];
+		for (int i = n-1; i >= 0; i--) {
+			reach[i] = new BitSet(n);
+			for (int j = succs[i].nextSetBit(0); j >= 0; j = succs[i].nextSetBit(j+1)) {
+				reach[i].set(j);
+				reach[i].or(reach[j]);
+			}
+		}
+	}
+
+	private static void addOrdering(BitSet[] succs, int i, int j) {
+		if (i >= j)
+			throw new IllegalStateException("Ordering " + i + " < " + j + " contradicts the plan");
+		succs[i].set(j);
+	}
+
+	public int getNumLinks() {
+		return nLinks;
+	}
+
+	public int getNumThreats() {
+		return nThreats;
+	}
+
+	/**
+	 * The number of orderings between plan steps, excluding init and goal, in the 
+	 * transitive closure.
+	 */
+	public int getRelationSize() {
+		int size = 0;
+		for (int i = 1; i < steps.size() - 1; i++) {
+			BitSet r = reach[i];
+			size += r.cardinality() - (r.get(steps.size() - 1) ? 1 : 0);
+		}
+		return size;
+	}
+
+	public boolean isOrdered(Operator<Variable> op1, Operator<Variable> op2) {
+		return reach[stepIndices.get(op1)].get(stepIndices.get(op2));
+	}
+
+	/**
+	 * The closed order relation, where element i is the set of steps after step i, 
+	 * numbered by their index in the plan.
+	 */
+	public BitSet[] getSuccessors() {
+		BitSet[] succs = new BitSet[reach.length];
+		for (int i = 0; i < reach.length; i++)
+			succs[i] = (BitSet) reach[i].clone();
+		return succs;
+	}
+
+	/**
+	 * The transitive reduction of the order relation, excluding init and goal.
+	 */
+	public DirectedGraph<Operator<Variable>> getReducedOrdering() {
+		DirectedGraph<Operator<Variable>> graph = new DirectedGraph<Operator<Variable>>();
+		int n = steps.size();
+		for (int i = 1; i < n - 1; i++) {
+			graph.addVertex(steps.get(i));
+
+			// the earliest successors not already reached through an earlier one
+			BitSet covered = new BitSet(n);
+			for (int j = reach[i].nextSetBit(0); j >= 0 && j < n - 1; j = reach[i].nextSetBit(j+1)) {
+				if (covered.get(j))
+					continue;
+				graph.addEdge(steps.get(i), steps.get(j));
+				covered.or(reach[j]);
+			}
+		}
+		return graph;
+	}
+
+}
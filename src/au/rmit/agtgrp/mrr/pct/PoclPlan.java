@@ -20,14 +20,19 @@
  *******************************************************************************/
 package au.rmit.agtgrp.mrr.pct;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import au.rmit.agtgrp.mrr.fol.Substitution;
 import au.rmit.agtgrp.mrr.fol.function.Constant;
 import au.rmit.agtgrp.mrr.fol.symbol.Variable;
+import au.rmit.agtgrp.mrr.fol.utils.Comparators;
 import au.rmit.agtgrp.mrr.pddl.Operator;
 import au.rmit.agtgrp.mrr.pddl.PddlDomain;
 import au.rmit.agtgrp.mrr.pddl.PddlProblem;
@@ -52,6 +57,12 @@ public class PoclPlan {
 
 	protected final CausalStructure constraints;
 	
+	// dense ids, in name order
+	protected final List<Variable> variables;
+	protected final Map<Variable, Integer> variableIds;
+	protected final List<Constant> constants;
+	protected final Map<Constant, Integer> constantIds;
+	
 	public PoclPlan(PddlProblem problem, List<Operator<Variable>> planSteps, Substitution<Constant> sub, CausalStructure constraints) {
 
 		if (problem == null || planSteps == null || sub == null || constraints == null) 		
@@ -79,6 +90,23 @@ public class PoclPlan {
 		
 		this.goalSub = Substitution.trim(sub, goal.getVariables());
 		this.initSub = Substitution.trim(sub, init.getVariables());	
+		
+		Set<Variable> varSet = new HashSet<Variable>(sub.getVariables());
+		for (Operator<Variable> step : planSteps)
+			varSet.addAll(step.getVariables());
+		variables = new ArrayList<Variable>(varSet);
+		Collections.sort(variables, Comparators.SYMBOL_COMPARATOR);
+		variableIds = new HashMap<Variable, Integer>();
+		for (int i = 0; i < variables.size(); i++)
+			variableIds.put(variables.get(i), i);
+		
+		Set<Constant> constSet = new HashSet<Constant>(problem.getObjects());
+		constSet.addAll(problem.getDomain().getConstants());
+		constants = new ArrayList<Constant>(constSet);
+		Collections.sort(constants, Comparators.SYMBOL_COMPARATOR);
+		constantIds = new HashMap<Constant, Integer>();
+		for (int i = 0; i < constants.size(); i++)
+			constantIds.put(constants.get(i), i);
 	}
 
 	private Operator<Variable> getOpByName(Collection<Operator<Variable>> operators, String name) {
@@ -129,5 +157,27 @@ public class PoclPlan {
 	public CausalStructure getConstraints() {
 		return constraints;
 	}
+	
+	public List<Variable> getVariables() {
+		return variables;
+	}
+	
+	public int getVariableId(Variable var) {
+		Integer id = variableIds.get(var);
+		if (id == null)
+			throw new IllegalArgumentException("Unknown variable: " + var);
+		return id;
+	}
+	
+	public List<Constant> getConstants() {
+		return constants;
+	}
+	
+	public int getConstantId(Constant c) {
+		Integer id = constantIds.get(c);
+		if (id == null)
+			throw new IllegalArgumentException("Unknown constant: " + c);
+		return id;
+	}
 
 }
@@ -21,6 +21,7 @@
 
 package au.rmit.agtgrp.mrr.pct;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -66,21 +67,20 @@ public class ThreatMap {
 		this.threatMap = threatMap;
 	}
 
+	/*
+	 * Lookups do not modify the map, so it can be shared between threads.
+	 */
 	public Set<Threat> getNegations(Consumer cons) {
 		Set<Threat> negs = threatMap.get(cons.literal.getValue()).get(cons.literal.getAtom().getSymbol());
-		if (negs == null) {
-			negs = new HashSet<Threat>();
-			threatMap.get(cons.literal.getValue()).put(cons.literal.getAtom().getSymbol(), negs);
-		}
+		if (negs == null)
+			return Collections.emptySet();
 		return negs;
 	}
 	
 	public Set<Threat> getNegations(PcLink pcLink) {
 		Set<Threat> negs = threatMap.get(pcLink.getProducer().literal.getValue()).get(pcLink.getProducer().literal.getAtom().getSymbol());
-		if (negs == null) {
-			negs = new HashSet<Threat>();
-			threatMap.get(pcLink.getProducer().literal.getValue()).put(pcLink.getProducer().literal.getAtom().getSymbol(), negs);
-		}
+		if (negs == null)
+			return Collections.emptySet();
 		return negs;
 	}
 
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.sat;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An in-memory channel which collects everything written to it in a growable heap buffer.
+ */
+class ByteBufferChannel implements WritableByteChannel {
+
+	private ByteBuffer buffer;
+	private boolean open;
+
+	public ByteBufferChannel(int capacity) {
+		buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+		open = true;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		int len = src.remaining();
+		if (buffer.remaining() < len) {
+			long capacity = Math.max((long) buffer.capacity() + (buffer.capacity() >> 1), (long) buffer.position() + len);
+			if (capacity > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("Buffer too large");
+			ByteBuffer grown = ByteBuffer.allocate((int) capacity);
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+		buffer.put(src);
+		return len;
+	}
+
+	/*
+	 * The bytes written so far, ready to be read.
+	 */
+	public ByteBuffer getBuffer() {
+		ByteBuffer out = buffer.duplicate();
+		out.flip();
+		return out;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+
+}
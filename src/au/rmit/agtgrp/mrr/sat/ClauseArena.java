@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.sat;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable, flat store of clauses. The literals of all clauses are kept 
+ * back-to-back in a single int array, and clause i occupies the range 
+ * [getClauseStart(i), getClauseEnd(i)) of that array.
+ */
+public class ClauseArena implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int DEFAULT_CLAUSE_CAPACITY = 1024;
+	private static final int DEFAULT_LITERAL_CAPACITY = 4096;
+
+	private int[] literals;
+	private int[] offsets; // offsets[i] is the start of clause i, offsets[nClauses] is the end of the last clause
+	private int nClauses;
+
+	public ClauseArena() {
+		this(DEFAULT_CLAUSE_CAPACITY, DEFAULT_LITERAL_CAPACITY);
+	}
+
+	public ClauseArena(int clauseCapacity, int literalCapacity) {
+		literals = new int[Math.max(literalCapacity, 1)];
+		offsets = new int[Math.max(clauseCapacity, 1) + 1];
+		nClauses = 0;
+	}
+
+	public int addClause(int ... clause) {
+		return addClause(clause, 0, clause.length);
+	}
+
+	public int addClause(int[] clause, int from, int len) {
+		int start = offsets[nClauses];
+		ensureLiteralCapacity(start + len);
+		System.arraycopy(clause, from, literals, start, len);
+		return endClause(start + len);
+	}
+
+	public int addClause(List<Integer> clause) {
+		int start = offsets[nClauses];
+		ensureLiteralCapacity(start + clause.size());
+		int end = start;
+		for (int lit : clause)
+			literals[end++] = lit;
+		return endClause(end);
+	}
+
+	public void addClauses(ClauseArena other) {
+		int start = offsets[nClauses];
+		int nLits = other.getNumLiterals();
+		ensureLiteralCapacity(start + nLits);
+		System.arraycopy(other.literals, 0, literals, start, nLits);
+
+		ensureClauseCapacity(nClauses + other.nClauses);
+		for (int i = 1; i <= other.nClauses; i++)
+			offsets[nClauses + i] = start + other.offsets[i];
+		nClauses += other.nClauses;
+	}
+
+	private int endClause(int end) {
+		ensureClauseCapacity(nClauses + 1);
+		offsets[++nClauses] = end;
+		return nClauses - 1;
+	}
+
+	public int size() {
+		return nClauses;
+	}
+
+	public int getNumLiterals() {
+		return offsets[nClauses];
+	}
+
+	public int getClauseStart(int clause) {
+		return offsets[clause];
+	}
+
+	public int getClauseEnd(int clause) {
+		return offsets[clause+1];
+	}
+
+	public int getClauseLength(int clause) {
+		return offsets[clause+1] - offsets[clause];
+	}
+
+	public int getLiteral(int clause, int i) {
+		return literals[offsets[clause] + i];
+	}
+
+	/**
+	 * The backing array, for allocation-free iteration. Only the range 
+	 * [0, getNumLiterals()) is meaningful, and the array is replaced when the arena grows.
+	 */
+	public int[] getLiterals() {
+		return literals;
+	}
+
+	public int[] getClause(int clause) {
+		return Arrays.copyOfRange(literals, offsets[clause], offsets[clause+1]);
+	}
+
+	public void clear() {
+		nClauses = 0;
+	}
+
+	public void trimToSize() {
+		literals = Arrays.copyOf(literals, Math.max(getNumLiterals(), 1));
+		offsets = Arrays.copyOf(offsets, nClauses + 1);
+	}
+
+	/**
+	 * Approximate heap usage in bytes, including unused capacity.
+	 */
+	public long getMemoryFootprint() {
+		return 16L + 4L * literals.length + 16L + 4L * offsets.length + 24L;
+	}
+
+	private void ensureLiteralCapacity(int capacity) {
+		if (capacity < 0)
+			throw new IllegalStateException("Clause arena is full");
+		if (capacity > literals.length)
+			literals = Arrays.copyOf(literals, grow(literals.length, capacity));
+	}
+
+	private void ensureClauseCapacity(int capacity) {
+		if (capacity + 1 > offsets.length)
+			offsets = Arrays.copyOf(offsets, grow(offsets.length, capacity + 1));
+	}
+
+	private static int grow(int length, int capacity) {
+		long newLength = Math.max((long) length + (length >> 1), capacity);
+		return (int) Math.min(newLength, Integer.MAX_VALUE - 8);
+	}
+
+}
@@ -0,0 +1,448 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.sat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula.WcnfFormat;
+import au.rmit.agtgrp.mrr.utils.FileUtils;
+
+/**
+ * Parses DIMACS CNF/WCNF formulas and solver models. The file is memory mapped 
+ * in windows, and bytes are fed through a state machine which scans digits 
+ * directly into primitive arrays, so files larger than 2GB can be read. Gzip
+ * compressed files are decompressed through the same state machine.
+ */
+public class DimacsParser {
+
+	private static final int WINDOW_SIZE = 1 << 26;
+
+	/*
+	 * Files without a "p" line are read as WCNF in the 2022 format if their name
+	 * contains ".wcnf" or if they contain a hard clause marker, otherwise as CNF.
+	 */
+	public static SatFormula parseFormula(File file) throws IOException {
+		DimacsParser parser = new DimacsParser(false, file.getName().contains(".wcnf"));
+		parser.feed(file);
+		return parser.finishFormula();
+	}
+
+	public static int[] parseModel(File file) throws IOException {
+		DimacsParser parser = new DimacsParser(true, false);
+		parser.feed(file);
+		return parser.finishModel();
+	}
+
+	public static BitSet parseModelBitSet(File file) throws IOException {
+		BitSet model = new BitSet();
+		for (int lit : parseModel(file)) {
+			if (lit > 0)
+				model.set(lit);
+		}
+		return model;
+	}
+
+	private static enum State {
+		LINE_START, SKIP_LINE, COLLECT_LINE, NUMBER_LINE
+	}
+
+	private final boolean modelMode;
+	private final boolean defaultWeighted;
+
+	private State state;
+	private long lineNumber;
+
+	// line collected for p, v and (in model mode) bare lines
+	private byte[] line;
+	private int lineLen;
+	private byte lineType;
+
+	// number token being scanned
+	private boolean inToken;
+	private boolean negative;
+	private long value;
+
+	// clause being built
+	private int[] clause;
+	private int clauseLen;
+	private long weight;
+	private boolean hasWeight;
+
+	private SatFormula formula;
+	private boolean weighted;
+	private boolean seenHeader;
+	private int headerProps;
+
+	private int[] vModel;
+	private int vModelLen;
+	private int nBinaryValues; // variables given by binary v lines so far
+	private boolean hasVLine;
+	private int[] lastBare;
+
+	public DimacsParser(boolean modelMode, boolean defaultWeighted) {
+		this.modelMode = modelMode;
+		this.defaultWeighted = defaultWeighted;
+		state = State.LINE_START;
+		lineNumber = 1;
+		line = new byte[256];
+		clause = new int[16];
+		vModel = new int[16];
+		weight = -1;
+	}
+
+	public void feed(File file) throws IOException {
+		if (isGzipped(file)) {
+			try (InputStream in = FileUtils.newInputStream(file)) {
+				byte[] buf = new byte[1 << 16];
+				int n;
+				while ((n = in.read(buf)) > 0)
+					feed(ByteBuffer.wrap(buf, 0, n));
+			}
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long pos = 0; pos < size; pos += WINDOW_SIZE) {
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_SIZE, size - pos));
+				feed(window);
+			}
+		}
+	}
+
+	private static boolean isGzipped(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(2);
+			while (magic.hasRemaining() && channel.read(magic) > 0);
+			return magic.position() == 2 && magic.get(0) == (byte) 0x1f && magic.get(1) == (byte) 0x8b;
+		}
+	}
+
+	public void feed(ByteBuffer chunk) {
+		while (chunk.hasRemaining())
+			feed(chunk.get());
+	}
+
+	private void feed(byte b) {
+		switch (state) {
+		case LINE_START:
+			if (b == '\n') {
+				lineNumber++;
+			}
+			else if (b == 'c') {
+				state = State.SKIP_LINE;
+			}
+			else if (b == 'p' || b == 'v' || (modelMode && (b == '-' || isDigit(b)))) {
+				lineType = b;
+				lineLen = 0;
+				if (b != 'p' && b != 'v')
+					appendLine(b);
+				state = State.COLLECT_LINE;
+			}
+			else if (modelMode && !isSpace(b)) {
+				state = State.SKIP_LINE; // s, o and any other solver output
+			}
+			else if (!modelMode && b == 'h') {
+				if (formula == null)
+					initFormula(true, 0, 0, Integer.MAX_VALUE);
+				if (!weighted || hasWeight)
+					throw error("Unexpected hard clause marker");
+				weight = ((WeightedSatFormula) formula).getHardClauseWeight();
+				hasWeight = true;
+				state = State.NUMBER_LINE;
+			}
+			else if (!modelMode && (b == '-' || isDigit(b))) {
+				state = State.NUMBER_LINE;
+				scanNumber(b);
+			}
+			else if (!isSpace(b)) {
+				throw error("Unexpected character '" + (char) b + "'");
+			}
+			break;
+
+		case SKIP_LINE:
+			if (b == '\n') {
+				lineNumber++;
+				state = State.LINE_START;
+			}
+			break;
+
+		case COLLECT_LINE:
+			if (b == '\n') {
+				processLine();
+				lineNumber++;
+				state = State.LINE_START;
+			}
+			else {
+				appendLine(b);
+			}
+			break;
+
+		case NUMBER_LINE:
+			scanNumber(b);
+			if (b == '\n') {
+				lineNumber++;
+				state = State.LINE_START;
+			}
+			break;
+		}
+	}
+
+	private void scanNumber(byte b) {
+		if (isDigit(b)) {
+			value = value * 10 + (b - '0');
+			if (value < 0)
+				throw error("Number too large");
+			inToken = true;
+		}
+		else if (b == '-' && !inToken && !negative) {
+			negative = true;
+		}
+		else if (isSpace(b)) {
+			if (inToken)
+				endNumber(negative ? -value : value);
+			else if (negative)
+				throw error("Expected digit after '-'");
+			inToken = false;
+			negative = false;
+			value = 0;
+		}
+		else {
+			throw error("Unexpected character '" + (char) b + "'");
+		}
+	}
+
+	private void endNumber(long n) {
+		if (formula == null)
+			initFormula(defaultWeighted, 0, 0, Integer.MAX_VALUE);
+
+		if (weighted && !hasWeight) {
+			weight = n;
+			hasWeight = true;
+		}
+		else if (n == 0) {
+			endClause();
+		}
+		else {
+			if (n > Integer.MAX_VALUE || n < -Integer.MAX_VALUE)
+				throw error("Literal out of range: " + n);
+			if (clauseLen == clause.length)
+				clause = Arrays.copyOf(clause, clauseLen * 2);
+			clause[clauseLen++] = (int) n;
+		}
+	}
+
+	private void endClause() {
+		int[] lits = clauseLen == clause.length ? clause : Arrays.copyOf(clause, clauseLen);
+		if (weighted) {
+			if (weight > Integer.MAX_VALUE)
+				throw error("Weight out of range: " + weight);
+			((WeightedSatFormula) formula).addWeightedClause((int) weight, lits);
+		}
+		else {
+			formula.addClause(lits);
+		}
+		clauseLen = 0;
+		hasWeight = false;
+	}
+
+	private void processLine() {
+		if (lineType == 'p') {
+			if (modelMode)
+				return;
+			processHeader(new String(line, 0, lineLen).trim());
+		}
+		else if (lineType == 'v') {
+			hasVLine = true;
+			processValues();
+		}
+		else {
+			lastBare = parseLiterals(0, lineLen);
+		}
+	}
+
+	private void processHeader(String header) {
+		if (formula != null)
+			throw error("Header must precede clauses");
+
+		seenHeader = true;
+		String[] split = header.split("\\s+");
+		try {
+			if (split.length >= 3 && split[0].equals("cnf")) {
+				initFormula(false, Integer.parseInt(split[1]), Integer.parseInt(split[2]), 0);
+			}
+			else if (split.length >= 3 && split[0].equals("wcnf")) {
+				long top = split.length > 3 ? Long.parseLong(split[3]) : Integer.MAX_VALUE;
+				if (top > Integer.MAX_VALUE)
+					throw error("Top weight out of range: " + top);
+				initFormula(true, Integer.parseInt(split[1]), Integer.parseInt(split[2]), (int) top);
+			}
+			else {
+				throw error("Invalid header: p " + header);
+			}
+		} catch (NumberFormatException e) {
+			throw error("Invalid header: p " + header);
+		}
+	}
+
+	private void initFormula(boolean weighted, int nProps, int nClauses, int top) {
+		this.weighted = weighted;
+		if (weighted) {
+			WeightedSatFormula wsat = new WeightedSatFormula(top);
+			if (!seenHeader)
+				wsat.setFormat(WcnfFormat.MSE2022);
+			formula = wsat;
+		}
+		else {
+			formula = new SatFormula();
+		}
+		headerProps = nProps;
+		int capacity = Math.min(Math.max(nClauses, 1), 1 << 24);
+		formula.clauses = new ClauseArena(capacity, capacity * 3);
+	}
+
+	/*
+	 * A v line holds either signed literals or, in the MaxSAT evaluation 2022 
+	 * format, a string of 0s and 1s giving the value of each variable. The string 
+	 * may be split across several v lines.
+	 */
+	private void processValues() {
+		int from = 0;
+		while (from < lineLen && isSpace(line[from]))
+			from++;
+		int to = lineLen;
+		while (to > from && isSpace(line[to-1]))
+			to--;
+
+		// a lone 0 ends an empty list of literals
+		boolean binary = to > from && !(to - from == 1 && line[from] == '0');
+		for (int i = from; i < to && binary; i++)
+			binary = line[i] == '0' || line[i] == '1';
+
+		if (binary) {
+			ensureModelCapacity(vModelLen + (to - from));
+			for (int i = from; i < to; i++) {
+				int var = ++nBinaryValues;
+				vModel[vModelLen++] = line[i] == '1' ? var : -var;
+			}
+		}
+		else {
+			for (int lit : parseLiterals(from, to)) {
+				ensureModelCapacity(vModelLen + 1);
+				vModel[vModelLen++] = lit;
+			}
+		}
+	}
+
+	private int[] parseLiterals(int from, int to) {
+		int[] lits = new int[16];
+		int n = 0;
+		int i = from;
+		while (i < to) {
+			while (i < to && isSpace(line[i]))
+				i++;
+			if (i == to)
+				break;
+
+			boolean neg = false;
+			if (line[i] == '-') {
+				neg = true;
+				i++;
+			}
+			long v = 0;
+			int start = i;
+			while (i < to && isDigit(line[i])) {
+				v = v * 10 + (line[i++] - '0');
+				if (v > Integer.MAX_VALUE)
+					throw error("Literal out of range");
+			}
+			if (i == start || (i < to && !isSpace(line[i])))
+				throw error("Invalid literal");
+
+			if (v == 0)
+				break;
+			if (n == lits.length)
+				lits = Arrays.copyOf(lits, n * 2);
+			lits[n++] = (int) (neg ? -v : v);
+		}
+		return Arrays.copyOf(lits, n);
+	}
+
+	private void appendLine(byte b) {
+		if (lineLen == line.length)
+			line = Arrays.copyOf(line, lineLen * 2);
+		line[lineLen++] = b;
+	}
+
+	private void ensureModelCapacity(int capacity) {
+		if (capacity > vModel.length)
+			vModel = Arrays.copyOf(vModel, Math.max(capacity, vModel.length * 2));
+	}
+
+	private void finishLine() {
+		if (state == State.COLLECT_LINE)
+			processLine();
+		else if (state == State.NUMBER_LINE)
+			scanNumber((byte) '\n');
+		state = State.LINE_START;
+	}
+
+	public SatFormula finishFormula() {
+		finishLine();
+		if (formula == null)
+			initFormula(defaultWeighted, 0, 0, Integer.MAX_VALUE);
+		if (clauseLen > 0 || hasWeight)
+			endClause(); // final clause without a terminating 0
+		formula.nProps = Math.max(formula.nProps, headerProps);
+		return formula;
+	}
+
+	public int[] finishModel() {
+		finishLine();
+		if (hasVLine)
+			return Arrays.copyOf(vModel, vModelLen);
+		if (lastBare != null)
+			return lastBare;
+		throw new IllegalArgumentException("No model found");
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("Line " + lineNumber + ": " + message);
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.sat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes DIMACS CNF/WCNF text to a channel. Integers are formatted directly
+ * into a reusable direct buffer, which is drained to the channel when full.
+ */
+public class DimacsWriter implements Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private static final byte[] HARD_MARKER = "h ".getBytes();
+
+	private static final int MAX_INT_CHARS = 21; // sign, 19 digits of a long and a trailing space
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final byte[] digits;
+	private long bytesWritten;
+
+	public DimacsWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	public DimacsWriter(WritableByteChannel channel, int bufferSize) {
+		if (bufferSize < MAX_INT_CHARS + 2)
+			throw new IllegalArgumentException("Buffer size too small: " + bufferSize);
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		digits = new byte[MAX_INT_CHARS];
+		bytesWritten = 0;
+	}
+
+	public void writeComment(String comment) throws IOException {
+		if (comment == null)
+			return;
+		for (String cline : comment.split("\n"))
+			writeLine("c " + cline);
+	}
+
+	public void writeLine(String line) throws IOException {
+		writeBytes(line.getBytes());
+		writeByte('\n');
+	}
+
+	public void writeBytes(byte[] bytes) throws IOException {
+		int off = 0;
+		while (off < bytes.length) {
+			if (!buffer.hasRemaining())
+				drain();
+			int len = Math.min(buffer.remaining(), bytes.length - off);
+			buffer.put(bytes, off, len);
+			off += len;
+		}
+	}
+
+	public void writeByte(char c) throws IOException {
+		if (!buffer.hasRemaining())
+			drain();
+		buffer.put((byte) c);
+	}
+
+	/*
+	 * Writes the value followed by a space.
+	 */
+	public void writeInt(long value) throws IOException {
+		if (buffer.remaining() < MAX_INT_CHARS)
+			drain();
+
+		if (value == Long.MIN_VALUE) {
+			buffer.put(Long.toString(value).getBytes());
+			buffer.put((byte) ' ');
+			return;
+		}
+		
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+
+		int i = digits.length;
+		do {
+			digits[--i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+
+		buffer.put(digits, i, digits.length - i);
+		buffer.put((byte) ' ');
+	}
+
+	public void writeHardMarker() throws IOException {
+		writeBytes(HARD_MARKER);
+	}
+
+	public void writeClause(int[] lits, int from, int to) throws IOException {
+		for (int i = from; i < to; i++)
+			writeInt(lits[i]);
+		endClause();
+	}
+
+	public void writeClause(int ... lits) throws IOException {
+		writeClause(lits, 0, lits.length);
+	}
+
+	public void writeWeightedClause(long weight, int[] lits, int from, int to) throws IOException {
+		writeInt(weight);
+		writeClause(lits, from, to);
+	}
+
+	public void endClause() throws IOException {
+		if (buffer.remaining() < 2)
+			drain();
+		buffer.put((byte) '0');
+		buffer.put((byte) '\n');
+	}
+
+	/*
+	 * Number of bytes written, including those still buffered.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten + buffer.position();
+	}
+
+	public void flush() throws IOException {
+		drain();
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		bytesWritten += buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.sat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import au.rmit.agtgrp.mrr.utils.FileUtils;
+
+/**
+ * Renumbers the propositions of a formula densely, dropping those that appear in 
+ * no clause. Propositions that must stay decodable without appearing in a clause,
+ * such as those fixed by the simplifier, can be kept; they are numbered after the
+ * live propositions, so the formula's proposition count covers only the live ones.
+ * 
+ * The formula is rewritten in place.
+ */
+public class PropositionCompactor {
+
+	private int[] oldToNew; // 0 if dropped
+	private int[] newToOld;
+	private int nOldProps;
+	private int nLiveProps;
+
+	public SatFormula compact(SatFormula formula) {
+		return compact(formula, new int[0]);
+	}
+
+	public WeightedSatFormula compact(WeightedSatFormula formula, int[] keep) {
+		return (WeightedSatFormula) compact((SatFormula) formula, keep);
+	}
+
+	public SatFormula compact(SatFormula formula, int[] keep) {
+		ClauseArena arena = formula.getArena();
+		nOldProps = formula.getNumProps();
+		for (int lit : keep)
+			nOldProps = Math.max(nOldProps, Math.abs(lit));
+
+		int[] lits = arena.getLiterals();
+		int nLits = arena.getNumLiterals();
+
+		// live props keep their relative order
+		boolean[] used = new boolean[nOldProps+1];
+		for (int i = 0; i < nLits; i++)
+			used[Math.abs(lits[i])] = true;
+
+		oldToNew = new int[nOldProps+1];
+		int n = 0;
+		for (int p = 1; p <= nOldProps; p++) {
+			if (used[p])
+				oldToNew[p] = ++n;
+		}
+		nLiveProps = n;
+		for (int lit : keep) {
+			int p = Math.abs(lit);
+			if (oldToNew[p] == 0)
+				oldToNew[p] = ++n;
+		}
+
+		newToOld = new int[n+1];
+		for (int p = 1; p <= nOldProps; p++) {
+			if (oldToNew[p] != 0)
+				newToOld[oldToNew[p]] = p;
+		}
+
+		for (int i = 0; i < nLits; i++)
+			lits[i] = lits[i] > 0 ? oldToNew[lits[i]] : -oldToNew[-lits[i]];
+		formula.nProps = nLiveProps;
+
+		return formula;
+	}
+
+	/*
+	 * Returns 0 if the proposition was dropped.
+	 */
+	public int getNewProposition(int oldProp) {
+		return oldProp > nOldProps ? 0 : oldToNew[oldProp];
+	}
+
+	public int getOldProposition(int newProp) {
+		return newToOld[newProp];
+	}
+
+	/*
+	 * Indexed by old proposition, 0 if dropped.
+	 */
+	public int[] getOldToNew() {
+		return Arrays.copyOf(oldToNew, oldToNew.length);
+	}
+
+	public int getNumOldProps() {
+		return nOldProps;
+	}
+
+	public int getNumLiveProps() {
+		return nLiveProps;
+	}
+
+	/*
+	 * Live and kept propositions.
+	 */
+	public int getNumProps() {
+		return newToOld.length - 1;
+	}
+
+	public String formatStats() {
+		return "Renumbered " + getNumProps() + " of " + nOldProps + " props (" + nLiveProps + " in clauses, " 
+				+ (getNumProps() - nLiveProps) + " kept, " + (nOldProps - getNumProps()) + " dropped)";
+	}
+
+	/*
+	 * The remap lists the original number of each new proposition, in order.
+	 */
+	public void writeRemap(File file) throws IOException {
+		try (DimacsWriter writer = new DimacsWriter(Channels.newChannel(FileUtils.newOutputStream(file, 1)))) {
+			writer.writeComment("original number of props 1.." + getNumProps() + "\nprops " + nOldProps);
+			writer.writeByte('v');
+			writer.writeByte(' ');
+			writer.writeClause(newToOld, 1, newToOld.length);
+		}
+	}
+
+	/*
+	 * Returns the original number of each new proposition, indexed from 1.
+	 */
+	public static int[] readRemap(File file) throws IOException {
+		int[] olds = DimacsParser.parseModel(file);
+		int[] newToOld = new int[olds.length+1];
+		System.arraycopy(olds, 0, newToOld, 1, olds.length);
+		return newToOld;
+	}
+
+}
@@ -21,24 +21,28 @@
 
 package au.rmit.agtgrp.mrr.sat;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
-import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import au.rmit.agtgrp.mrr.utils.FileUtils;
+import au.rmit.agtgrp.mrr.utils.collections.graph.CsrGraph;
 import au.rmit.agtgrp.mrr.utils.collections.graph.UndirectedGraph;
 
 public class SatFormula implements Iterable<int[]>, Serializable {
@@ -87,91 +91,97 @@ public class SatFormula implements Iterable<int[]>, Serializable {
 	}
 	
 	public static int[] loadModel(File file) {
-		List<String> lines = new ArrayList<String>();
-		for (String line : FileUtils.readFile(file)) {
-			line = line.trim();
-			if (!line.isEmpty())
-				lines.add(line);
+		try {
+			return DimacsParser.parseModel(file);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
-		String solStr = lines.get(lines.size()-1);
-		return parse(solStr);		
 	}
-		
-	public static SatFormula parse(File file) throws IOException {
-		FileInputStream inputStream = null;
-		Scanner sc = null;
-		try {
-			inputStream = new FileInputStream(file.getAbsolutePath());
-			sc = new Scanner(inputStream, "UTF-8");
-
-			SatFormula sat = new SatFormula();
-			while (sc.hasNextLine()) {
-				String line = sc.nextLine().trim();
-				if (line.startsWith("p") || line.startsWith("c"))
-					continue;
-
-				String[] split = line.split(" ");
-				int[] clause = new int[split.length-1];
-				for (int i = 0; i < clause.length; i++)
-					clause[i] = Integer.valueOf(split[i]);
-				
-				sat.addClause(clause);
 
-			}
-			// note that Scanner suppresses exceptions
-			if (sc.ioException() != null) {
-				throw sc.ioException();
-			}
+	public static BitSet loadModelBitSet(File file) {
+		try {
+			return DimacsParser.parseModelBitSet(file);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+		
+	/*
+	 * Writes a model in the MaxSAT evaluation output format, so it can be read 
+	 * back with loadModel.
+	 */
+	public static void writeModel(File file, int[] model) {
+		writeModel(file, model, "OPTIMUM FOUND", -1);
+	}
 
-			return sat;
-		} finally {
-			if (inputStream != null) {
-				inputStream.close();
-			}
-			if (sc != null) {
-				sc.close();
-			}
+	/*
+	 * As above, with the given status. If cost is not negative, it is written 
+	 * on an "o" line.
+	 */
+	public static void writeModel(File file, int[] model, String status, long cost) {
+		StringBuilder sb = new StringBuilder();
+		if (cost >= 0)
+			sb.append("o ").append(cost).append('\n');
+		sb.append("s ").append(status).append("\nv");
+		for (int lit : model)
+			sb.append(' ').append(lit);
+		sb.append('\n');
+		try (OutputStream out = FileUtils.newOutputStream(file, 1)) {
+			out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
+
+	public static SatFormula parse(File file) throws IOException {
+		return DimacsParser.parseFormula(file);
+	}
 	 
 
-	protected List<int[]> clauses;
+	private static final int PARALLEL_CHUNK_LITERALS = 1 << 20;
+
+	protected ClauseArena clauses;
 	protected int nProps;
 	protected String comment;
 
 	public SatFormula(List<int[]> clauses, int nProps) {
-		this.clauses = clauses;
-		this.nProps = nProps;
+		this();
+		for (int[] clause : clauses)
+			appendClause(clause);
+		this.nProps = Math.max(this.nProps, nProps);
 	}
 
 	public SatFormula() {
-		clauses = new ArrayList<int[]>();
+		clauses = new ClauseArena();
 		nProps = 0;
 	}
 
 	public void addClause(List<Integer> clause) {
-		int[] arr = new int[clause.size()];
-		int i = 0;
-		for (Integer s : clause)
-			arr[i++] = s;
-		
-		setHighestPropNumber(arr);
-		clauses.add(arr);
+		appendClause(clause);
 	}
 
 	public void addClause(int ... clause) {
-		setHighestPropNumber(clause);
-		clauses.add(Arrays.copyOf(clause, clause.length));
+		appendClause(clause);
 	}
 
-	protected void setHighestPropNumber(int[] clause) {
-		for (int p : clause) {
-			p = Math.abs(p);
-			if (p > nProps)
-				nProps = p;
-			if (p == 0)
-				throw new IllegalArgumentException("Invalid prop: " + Integer.toString(p));
-		}
+	protected int appendClause(List<Integer> clause) {
+		for (int p : clause)
+			setHighestPropNumber(p);
+		return clauses.addClause(clause);
+	}
+
+	protected int appendClause(int[] clause) {
+		for (int p : clause)
+			setHighestPropNumber(p);
+		return clauses.addClause(clause);
+	}
+
+	protected void setHighestPropNumber(int p) {
+		p = Math.abs(p);
+		if (p > nProps)
+			nProps = p;
+		if (p == 0)
+			throw new IllegalArgumentException("Invalid prop: " + Integer.toString(p));
 	}
 
 	public int getNumProps() {
@@ -182,6 +192,30 @@ public class SatFormula implements Iterable<int[]>, Serializable {
 		return clauses.size();
 	}
 
+	public long getNumLiterals() {
+		return clauses.getNumLiterals();
+	}
+
+	/**
+	 * The clauses held in memory. Formulas that do not hold their clauses, such as 
+	 * StreamingWeightedSatFormula, throw UnsupportedOperationException.
+	 */
+	public ClauseArena getArena() {
+		return clauses;
+	}
+
+	public boolean isWeighted() {
+		return false;
+	}
+
+	public int getClauseWeight(int clause) {
+		throw new UnsupportedOperationException("Formula is not weighted");
+	}
+
+	public long getMemoryFootprint() {
+		return clauses.getMemoryFootprint();
+	}
+
 	public String getComment() {
 		return comment;
 	}
@@ -191,126 +225,253 @@ public class SatFormula implements Iterable<int[]>, Serializable {
 	}
 
 	protected String formatDescription() {
-		return "p cnf " + nProps + " " + clauses.size();
+		return "p cnf " + nProps + " " + getNumClauses();
+	}
+
+	/*
+	 * Weighted formulas prefix the clause with its weight.
+	 */
+	protected int[] formatClause(int clause) {
+		if (!isWeighted())
+			return clauses.getClause(clause);
+
+		int[] formatted = new int[clauses.getClauseLength(clause) + 1];
+		formatted[0] = getClauseWeight(clause);
+		System.arraycopy(clauses.getLiterals(), clauses.getClauseStart(clause), formatted, 1, formatted.length - 1);
+		return formatted;
 	}
 
 	@Override
 	public Iterator<int[]> iterator() {
-		return clauses.iterator();
+		return getClauses().iterator();
 	}
 
 	public List<int[]> getClauses() {
-		return clauses;
+		return new AbstractList<int[]>() {
+			@Override
+			public int[] get(int index) {
+				if (index < 0 || index >= clauses.size())
+					throw new IndexOutOfBoundsException(Integer.toString(index));
+				return formatClause(index);
+			}
+
+			@Override
+			public int size() {
+				return clauses.size();
+			}
+		};
 	}
 
 	public void writeToFileRandomAccess(File file) throws IOException {
+		if (FileUtils.isGzipFile(file)) {
+			writeToFile(file);
+			return;
+		}
 
 		if (file.exists())
 			file.delete();
 		
-		byte[] sp = " ".getBytes();
-		byte[] end = "0\n".getBytes();
-		
-		long spSize = sp.length;
-		long endSize = end.length;
-		long buf = 0;
-		if (comment != null) {
-			for (String cline : comment.split("\n"))
-				buf += ("c " + cline + "\n").getBytes().length;
-		}
-		buf+=(formatDescription()+"\n").getBytes().length;
-		
-		for (int[] clause : clauses) {
-			for (int i = 0; i < clause.length; i++){
-				buf += Integer.toString(clause[i]).getBytes().length;
-				buf += spSize;
-			}
-			buf+=endSize;
-		}		
-		
 		RandomAccessFile raf = new RandomAccessFile(file.getAbsolutePath(), "rw");
-		FileChannel rwChannel = raf.getChannel();
-		ByteBuffer wrBuf = rwChannel.map(FileChannel.MapMode.READ_WRITE, 0, buf);
-		
-		if (comment != null) {
-			for (String cline : comment.split("\n"))
-				wrBuf.put(("c " + cline + "\n").getBytes());
-		}
-		wrBuf.put((formatDescription()+"\n").getBytes());
-		
-		for (int[] clause : clauses) {
-			for (int i = 0; i < clause.length; i++){
-				wrBuf.put(Integer.toString(clause[i]).getBytes());
-				wrBuf.put(sp);
-			}
-			wrBuf.put(end);
+		try (DimacsWriter writer = new DimacsWriter(raf.getChannel())) {
+			write(writer);
+		} finally {
+			raf.close();
 		}
-		rwChannel.close();
-		raf.close();
 	}
 	
 	public void writeToFile(File file) throws IOException {
+		writeToFile(file, 1);
+	}
+
+	private void writeToFileSerial(File file, int nThreads) throws IOException {
 
 		if (file.exists())
 			file.delete();
 		
-		file.getParentFile().mkdirs();
+		if (file.getAbsoluteFile().getParentFile() != null)
+			file.getAbsoluteFile().getParentFile().mkdirs();
+
+		if (FileUtils.isGzipFile(file)) {
+			try (DimacsWriter writer = new DimacsWriter(Channels.newChannel(FileUtils.newOutputStream(file, nThreads)))) {
+				write(writer);
+			}
+			return;
+		}
 
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
-		 	
-		if (comment != null) {
-			for (String cline : comment.split("\n"))
-				bw.write("c " + cline + "\n");
+		try (DimacsWriter writer = new DimacsWriter(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+			write(writer);
 		}
-		bw.write(formatDescription()+"\n");
+	}
+
+	/*
+	 * Formats chunks of clauses into separate buffers in parallel, and writes 
+	 * them in order with gather writes. The output is identical to writeToFile(File).
+	 * Files whose name ends in .gz are formatted serially and compressed in parallel.
+	 */
+	public void writeToFile(File file, int nThreads) throws IOException {
+		if (nThreads <= 1 || clauses.getNumLiterals() < 2 * PARALLEL_CHUNK_LITERALS || FileUtils.isGzipFile(file)) {
+			writeToFileSerial(file, nThreads);
+			return;
+		}
+
+		if (file.exists())
+			file.delete();
 		
-		StringBuilder sb = new StringBuilder();
-		int c = 0;
-		for (int[] clause : clauses) {	
-			for (int i = 0; i < clause.length; i++){
-				//bw.write(Integer.toString(clause[i]));
-				//bw.write(" ");
-				sb.append(Integer.toString(clause[i]) + " ");
+		if (file.getAbsoluteFile().getParentFile() != null)
+			file.getAbsoluteFile().getParentFile().mkdirs();
+
+		// chunk boundaries, as clause indices
+		List<Integer> bounds = new ArrayList<Integer>();
+		bounds.add(0);
+		int chunkStart = 0;
+		for (int c = 0; c < clauses.size(); c++) {
+			if (clauses.getClauseEnd(c) - clauses.getClauseStart(chunkStart) >= PARALLEL_CHUNK_LITERALS) {
+				bounds.add(c + 1);
+				chunkStart = c + 1;
 			}
-			sb.append("0\n");
-			//bw.write("0\n");
-			if (c % 1000 == 0) {			
-				bw.write(sb.toString());
-				sb = new StringBuilder();
+		}
+		if (bounds.get(bounds.size()-1) != clauses.size())
+			bounds.add(clauses.size());
+
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			DimacsWriter writer = new DimacsWriter(channel);
+			writer.writeComment(comment);
+			writeHeader(writer);
+			writer.flush();
+
+			// format a bounded number of chunks at a time, so that only a window of the output is in memory
+			int wave = 2 * nThreads;
+			for (int first = 0; first < bounds.size() - 1; first += wave) {
+				List<Callable<ByteBuffer>> tasks = new ArrayList<Callable<ByteBuffer>>();
+				for (int i = first; i < Math.min(first + wave, bounds.size() - 1); i++) {
+					final int from = bounds.get(i);
+					final int to = bounds.get(i+1);
+					tasks.add(new Callable<ByteBuffer>() {
+						@Override
+						public ByteBuffer call() throws IOException {
+							return formatChunk(from, to);
+						}
+					});
+				}
+
+				List<Future<ByteBuffer>> futures = pool.invokeAll(tasks);
+				ByteBuffer[] buffers = new ByteBuffer[futures.size()];
+				for (int i = 0; i < buffers.length; i++)
+					buffers[i] = futures.get(i).get();
+
+				long remaining = 0;
+				for (ByteBuffer buffer : buffers)
+					remaining += buffer.remaining();
+				while (remaining > 0)
+					remaining -= channel.write(buffers);
 			}
-			c++;
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
 		}
-		
-		bw.write(sb.toString());
-		bw.close();
+	}
+
+	private ByteBuffer formatChunk(int from, int to) throws IOException {
+		int nLits = clauses.getClauseEnd(to - 1) - clauses.getClauseStart(from);
+		ByteBufferChannel out = new ByteBufferChannel(nLits * 6);
+		DimacsWriter writer = new DimacsWriter(out, 1 << 14);
+		int[] lits = clauses.getLiterals();
+		for (int c = from; c < to; c++) {
+			writeClausePrefix(writer, c);
+			writer.writeClause(lits, clauses.getClauseStart(c), clauses.getClauseEnd(c));
+		}
+		writer.flush();
+		return out.getBuffer();
 	}
 
 	public void writeToStream(OutputStream out) throws IOException {
-		byte[] sp = " ".getBytes();
-		byte[] end = "0\n".getBytes();
+		DimacsWriter writer = new DimacsWriter(Channels.newChannel(out));
+		write(writer);
+		writer.flush();
+		out.flush();
+	}
+
+	public void write(DimacsWriter writer) throws IOException {
+		writer.writeComment(comment);
+		writeHeader(writer);
 		
-		if (comment != null) {
-			for (String cline : comment.split("\n"))
-				out.write(("c " + cline + "\n").getBytes());
+		int[] lits = clauses.getLiterals();
+		for (int c = 0; c < clauses.size(); c++) {
+			writeClausePrefix(writer, c);
+			writer.writeClause(lits, clauses.getClauseStart(c), clauses.getClauseEnd(c));
 		}
-		out.write((formatDescription()+"\n").getBytes());
-		out.flush();
-		for (int[] clause : clauses) {
-			for (int i = 0; i < clause.length; i++) {
-				out.write(Integer.toString(clause[i]).getBytes());
-				out.write(sp);
+	}
+
+	protected void writeHeader(DimacsWriter writer) throws IOException {
+		writer.writeLine(formatDescription());
+	}
+
+	protected void writeClausePrefix(DimacsWriter writer, int clause) throws IOException {
+		// no prefix on unweighted clauses
+	}
+	
+	/**
+	 * The primal graph with vertex v-1 for each proposition v, and an edge between 
+	 * propositions which appear together in a clause.
+	 */
+	public CsrGraph getPrimalCsrGraph() {
+		CsrGraph.Builder builder = new CsrGraph.Builder(nProps);
+		int[] lits = clauses.getLiterals();
+		for (int pass = 0; pass < 2; pass++) {
+			for (int c = 0; c < clauses.size(); c++) {
+				int end = clauses.getClauseEnd(c);
+				for (int i = clauses.getClauseStart(c); i < end; i++) {
+					int u = Math.abs(lits[i]) - 1;
+					for (int j = i+1; j < end; j++) {
+						if (pass == 0)
+							builder.countEdge(u, Math.abs(lits[j]) - 1);
+						else
+							builder.addEdge(u, Math.abs(lits[j]) - 1);
+					}
+				}
 			}
-			out.write(end);
-			out.flush();
+			if (pass == 0)
+				builder.allocate();
 		}
+		return builder.build();
 	}
-	
+
+	/**
+	 * The bipartite incidence graph with vertex v-1 for each proposition v, and vertex 
+	 * nProps+c for each clause c.
+	 */
+	public CsrGraph getIncidenceCsrGraph() {
+		CsrGraph.Builder builder = new CsrGraph.Builder(nProps + clauses.size());
+		int[] lits = clauses.getLiterals();
+		for (int pass = 0; pass < 2; pass++) {
+			for (int c = 0; c < clauses.size(); c++) {
+				for (int i = clauses.getClauseStart(c); i < clauses.getClauseEnd(c); i++) {
+					if (pass == 0)
+						builder.countEdge(Math.abs(lits[i]) - 1, nProps + c);
+					else
+						builder.addEdge(Math.abs(lits[i]) - 1, nProps + c);
+				}
+			}
+			if (pass == 0)
+				builder.allocate();
+		}
+		return builder.build();
+	}
+
 	public UndirectedGraph<Integer> getPrimalGraph() {
 		UndirectedGraph<Integer> primalGraph = new UndirectedGraph<Integer>();
-		for (int[] clause : clauses) {
-			for (int i = 0; i < clause.length; i++) {
-				for (int j = i+1; j < clause.length; j++) {
-					primalGraph.addEdge(clause[i], clause[j]);
+		int[] lits = clauses.getLiterals();
+		for (int c = 0; c < clauses.size(); c++) {
+			int end = clauses.getClauseEnd(c);
+			for (int i = clauses.getClauseStart(c); i < end; i++) {
+				for (int j = i+1; j < end; j++) {
+					primalGraph.addEdge(lits[i], lits[j]);
 				}
 			}
 		}
@@ -319,10 +480,11 @@ public class SatFormula implements Iterable<int[]>, Serializable {
 	
 	public UndirectedGraph<Integer> getIncidenceGraph() {
 		UndirectedGraph<Integer> incGraph = new UndirectedGraph<Integer>();
+		int[] lits = clauses.getLiterals();
 		int cnum = nProps+1;
-		for (int[] clause : clauses) {
-			for (int i = 0; i < clause.length; i++) {
-				incGraph.addEdge(clause[i], cnum);
+		for (int c = 0; c < clauses.size(); c++) {
+			for (int i = clauses.getClauseStart(c); i < clauses.getClauseEnd(c); i++) {
+				incGraph.addEdge(lits[i], cnum);
 			}
 			cnum++;
 		}
@@ -332,8 +494,8 @@ public class SatFormula implements Iterable<int[]>, Serializable {
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append(formatDescription());
-		for (int[] clause : clauses) {
-			for (int prop : clause) {
+		for (int c = 0; c < clauses.size(); c++) {
+			for (int prop : formatClause(c)) {
 				sb.append(prop);
 				sb.append(" ");
 			}		
@@ -0,0 +1,514 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.sat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import au.rmit.agtgrp.mrr.utils.FileUtils;
+
+/**
+ * Simplifies a CNF or WCNF formula before it is handed to a solver, by removing
+ * duplicate clauses, removing clauses subsumed by hard clauses, propagating hard
+ * unit clauses and eliminating pure literals. Soft duplicates are merged by adding
+ * their weights while the sum stays below the top weight, and soft clauses falsified 
+ * by propagation are added to a constant cost offset. All of these preserve optimal MaxSAT solutions.
+ * 
+ * Propositions are not renumbered here, see PropositionCompactor. The fixed literals 
+ * form a reconstruction map, which must be applied to a model of the simplified 
+ * formula to obtain a model of the original.
+ */
+public class SatSimplifier {
+
+	private final boolean verbose;
+
+	private int nProps;
+	private ClauseArena arena;
+	private long[] weights; // -1 for hard clauses
+	private boolean[] dead;
+	private int[] nFree;
+
+	private int[] occStart;
+	private int[] occ;
+
+	private byte[] vals;
+	private int[] fixed;
+	private int nFixed;
+	private int[] queue;
+
+	private long costOffset;
+	private int nDuplicates;
+	private int nTautologies;
+	private int nSubsumed;
+	private int nSatisfied;
+	private int nFalsified;
+	private int nUnits;
+	private int nPure;
+
+	public SatSimplifier() {
+		this(false);
+	}
+
+	public SatSimplifier(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	public WeightedSatFormula simplify(WeightedSatFormula formula) {
+		return (WeightedSatFormula) simplify((SatFormula) formula);
+	}
+
+	public SatFormula simplify(SatFormula formula) {
+		nProps = formula.getNumProps();
+		WeightedSatFormula wsat = formula.isWeighted() ? (WeightedSatFormula) formula : null;
+
+		costOffset = 0;
+		nDuplicates = nTautologies = nSubsumed = nSatisfied = nFalsified = nUnits = nPure = 0;
+
+		if (verbose)
+			System.out.println("Removing duplicate clauses");
+		normalise(formula, wsat);
+
+		buildOccurrences();
+		vals = new byte[nProps+1];
+		fixed = new int[16];
+		nFixed = 0;
+		queue = new int[16];
+
+		if (verbose)
+			System.out.println("Removing subsumed clauses");
+		removeSubsumed();
+
+		if (verbose)
+			System.out.println("Propagating unit clauses");
+		propagateUnits();
+
+		if (verbose)
+			System.out.println("Eliminating pure literals");
+		eliminatePureLiterals();
+
+		SatFormula simplified = buildFormula(formula, wsat);
+
+		// free working memory, keep the reconstruction map
+		arena = null;
+		weights = null;
+		dead = null;
+		nFree = null;
+		occStart = null;
+		occ = null;
+		queue = null;
+
+		return simplified;
+	}
+
+	public int[] getFixedLiterals() {
+		return Arrays.copyOf(fixed, nFixed);
+	}
+
+	public long getCostOffset() {
+		return costOffset;
+	}
+
+	public String formatStats() {
+		return "Removed " + nDuplicates + " duplicate, " + nTautologies + " tautological, " + nSubsumed + " subsumed, " 
+				+ nSatisfied + " satisfied and " + nFalsified + " falsified soft clauses; fixed " + nFixed + " props (" 
+				+ nUnits + " by unit propagation, " + nPure + " pure); cost offset " + costOffset;
+	}
+
+	/*
+	 * Sorts the literals of each clause, drops repeated literals and tautologies,
+	 * and merges duplicate clauses.
+	 */
+	private void normalise(SatFormula formula, WeightedSatFormula wsat) {
+		ClauseArena in = formula.getArena();
+		int n = in.size();
+
+		arena = new ClauseArena(Math.max(n, 1), Math.max(in.getNumLiterals(), 1));
+		weights = new long[Math.max(n, 1)];
+
+		int[] hashes = new int[Math.max(n, 1)];
+		int[] table = new int[Integer.highestOneBit(Math.max(2 * n, 2)) << 1];
+		Arrays.fill(table, -1);
+		int mask = table.length - 1;
+
+		int[] stamp = new int[nProps+1];
+		int[] buf = new int[16];
+		int[] lits = in.getLiterals();
+
+		for (int c = 0; c < n; c++) {
+			int start = in.getClauseStart(c);
+			int len = in.getClauseLength(c);
+			long weight = wsat == null || wsat.isHardClause(c) ? -1 : wsat.getClauseWeight(c);
+
+			if (buf.length < len)
+				buf = new int[len];
+			System.arraycopy(lits, start, buf, 0, len);
+			Arrays.sort(buf, 0, len);
+
+			// remove repeats and detect tautologies
+			int k = 0;
+			boolean taut = false;
+			for (int i = 0; i < len && !taut; i++) {
+				int var = Math.abs(buf[i]);
+				int sign = buf[i] > 0 ? 1 : 2;
+				if (stamp[var] == 0 || (stamp[var] >> 2) != c + 1) {
+					stamp[var] = ((c + 1) << 2) | sign;
+					buf[k++] = buf[i];
+				}
+				else if ((stamp[var] & 3) != sign) {
+					taut = true;
+				}
+			}
+			if (taut) {
+				nTautologies++;
+				continue;
+			}
+
+			int hash = 1;
+			for (int i = 0; i < k; i++)
+				hash = 31 * hash + buf[i];
+			int slot = (hash * 0x9E3779B9) >>> 1 & mask;
+			int dup = -1;
+			while (table[slot] >= 0) {
+				int d = table[slot];
+				if (hashes[d] == hash && sameClause(d, buf, k)) {
+					dup = d;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			// a soft duplicate whose merged weight would reach the top weight is kept 
+			// as a separate clause, and later duplicates are merged into it instead
+			if (dup >= 0 && (weights[dup] < 0 || weight < 0 || weights[dup] + weight < wsat.getHardClauseWeight())) {
+				nDuplicates++;
+				if (weights[dup] >= 0)
+					weights[dup] = weight < 0 ? -1 : weights[dup] + weight;
+				continue;
+			}
+
+			int idx = arena.addClause(buf, 0, k);
+			hashes[idx] = hash;
+			weights[idx] = weight;
+			table[slot] = idx;
+		}
+
+		dead = new boolean[arena.size()];
+		nFree = new int[arena.size()];
+		for (int c = 0; c < arena.size(); c++)
+			nFree[c] = arena.getClauseLength(c);
+	}
+
+	private boolean sameClause(int c, int[] buf, int len) {
+		if (arena.getClauseLength(c) != len)
+			return false;
+		int start = arena.getClauseStart(c);
+		int[] lits = arena.getLiterals();
+		for (int i = 0; i < len; i++) {
+			if (lits[start + i] != buf[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int litIndex(int lit) {
+		return lit > 0 ? 2 * lit : -2 * lit + 1;
+	}
+
+	private void buildOccurrences() {
+		occStart = new int[2 * nProps + 3];
+		int[] lits = arena.getLiterals();
+		int nLits = arena.getNumLiterals();
+		for (int i = 0; i < nLits; i++)
+			occStart[litIndex(lits[i]) + 1]++;
+		for (int i = 1; i < occStart.length; i++)
+			occStart[i] += occStart[i-1];
+
+		occ = new int[nLits];
+		int[] pos = Arrays.copyOf(occStart, occStart.length);
+		for (int c = 0; c < arena.size(); c++) {
+			for (int i = arena.getClauseStart(c); i < arena.getClauseEnd(c); i++)
+				occ[pos[litIndex(lits[i])]++] = c;
+		}
+	}
+
+	private static long signature(int[] lits, int start, int end) {
+		long sig = 0;
+		for (int i = start; i < end; i++)
+			sig |= 1L << (litIndex(lits[i]) & 63);
+		return sig;
+	}
+
+	/*
+	 * Backward subsumption. Only hard clauses may subsume, since a soft clause does 
+	 * not make another soft clause redundant.
+	 */
+	private void removeSubsumed() {
+		int n = arena.size();
+		int[] lits = arena.getLiterals();
+		long[] sigs = new long[n];
+		for (int c = 0; c < n; c++)
+			sigs[c] = signature(lits, arena.getClauseStart(c), arena.getClauseEnd(c));
+
+		int[] mark = new int[2 * nProps + 2];
+		for (int c = 0; c < n; c++) {
+			if (dead[c] || weights[c] >= 0)
+				continue;
+
+			int start = arena.getClauseStart(c);
+			int end = arena.getClauseEnd(c);
+			int len = end - start;
+			if (len == 0)
+				continue;
+
+			// the literal of c with the fewest occurrences
+			int best = litIndex(lits[start]);
+			for (int i = start + 1; i < end; i++) {
+				int li = litIndex(lits[i]);
+				if (occStart[li+1] - occStart[li] < occStart[best+1] - occStart[best])
+					best = li;
+			}
+
+			for (int i = start; i < end; i++)
+				mark[litIndex(lits[i])] = c + 1;
+
+			for (int o = occStart[best]; o < occStart[best+1]; o++) {
+				int d = occ[o];
+				if (d == c || dead[d] || arena.getClauseLength(d) < len || (sigs[c] & ~sigs[d]) != 0)
+					continue;
+
+				int found = 0;
+				for (int i = arena.getClauseStart(d); i < arena.getClauseEnd(d) && found < len; i++) {
+					if (mark[litIndex(lits[i])] == c + 1)
+						found++;
+				}
+				if (found == len) {
+					dead[d] = true;
+					nSubsumed++;
+				}
+			}
+		}
+	}
+
+	private void propagateUnits() {
+		int qHead = 0;
+		int qTail = 0;
+		int[] lits = arena.getLiterals();
+		for (int c = 0; c < arena.size(); c++) {
+			if (dead[c])
+				continue;
+			if (nFree[c] == 0 && weights[c] >= 0) {
+				costOffset += weights[c];
+				dead[c] = true;
+				nFalsified++;
+			}
+			else if (nFree[c] == 0) {
+				throw new IllegalStateException("Formula is unsatisfiable: empty hard clause");
+			}
+			else if (nFree[c] == 1 && weights[c] < 0) {
+				qTail = enqueue(qTail, lits[arena.getClauseStart(c)]);
+			}
+		}
+
+		while (qHead < qTail) {
+			int lit = queue[qHead++];
+			int var = Math.abs(lit);
+			int val = lit > 0 ? 1 : -1;
+			if (vals[var] == val)
+				continue;
+			if (vals[var] == -val)
+				throw new IllegalStateException("Formula is unsatisfiable: conflicting units on prop " + var);
+
+			assign(lit);
+			nUnits++;
+
+			int neg = litIndex(-lit);
+			for (int o = occStart[neg]; o < occStart[neg+1]; o++) {
+				int c = occ[o];
+				if (dead[c])
+					continue;
+				nFree[c]--;
+				if (nFree[c] == 0) {
+					if (weights[c] < 0)
+						throw new IllegalStateException("Formula is unsatisfiable: hard clause falsified by unit propagation");
+					costOffset += weights[c];
+					dead[c] = true;
+					nFalsified++;
+				}
+				else if (nFree[c] == 1 && weights[c] < 0) {
+					for (int i = arena.getClauseStart(c); i < arena.getClauseEnd(c); i++) {
+						if (vals[Math.abs(lits[i])] == 0) {
+							qTail = enqueue(qTail, lits[i]);
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private int enqueue(int tail, int lit) {
+		if (tail == queue.length)
+			queue = Arrays.copyOf(queue, queue.length * 2);
+		queue[tail] = lit;
+		return tail + 1;
+	}
+
+	/*
+	 * Fixes the literal and removes the clauses it satisfies.
+	 */
+	private void assign(int lit) {
+		vals[Math.abs(lit)] = (byte) (lit > 0 ? 1 : -1);
+		if (nFixed == fixed.length)
+			fixed = Arrays.copyOf(fixed, nFixed * 2);
+		fixed[nFixed++] = lit;
+
+		int pos = litIndex(lit);
+		for (int o = occStart[pos]; o < occStart[pos+1]; o++) {
+			int c = occ[o];
+			if (!dead[c]) {
+				dead[c] = true;
+				nSatisfied++;
+			}
+		}
+	}
+
+	/*
+	 * A literal whose negation appears in no remaining clause, hard or soft, can be 
+	 * set true without falsifying anything. Setting it only removes clauses, so it 
+	 * never produces units, but it may make other literals pure.
+	 */
+	private void eliminatePureLiterals() {
+		int[] counts = new int[2 * nProps + 2];
+		int[] lits = arena.getLiterals();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			Arrays.fill(counts, 0);
+			for (int c = 0; c < arena.size(); c++) {
+				if (dead[c])
+					continue;
+				for (int i = arena.getClauseStart(c); i < arena.getClauseEnd(c); i++) {
+					if (vals[Math.abs(lits[i])] == 0)
+						counts[litIndex(lits[i])]++;
+				}
+			}
+
+			for (int var = 1; var <= nProps; var++) {
+				if (vals[var] != 0)
+					continue;
+				int pos = counts[litIndex(var)];
+				int neg = counts[litIndex(-var)];
+				if (pos > 0 && neg == 0) {
+					assign(var);
+					nPure++;
+					changed = true;
+				}
+				else if (neg > 0 && pos == 0) {
+					assign(-var);
+					nPure++;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private SatFormula buildFormula(SatFormula formula, WeightedSatFormula wsat) {
+		SatFormula simplified;
+		WeightedSatFormula wsimplified = null;
+		if (wsat != null) {
+			wsimplified = new WeightedSatFormula(wsat.getHardClauseWeight());
+			wsimplified.setFormat(wsat.getFormat());
+			simplified = wsimplified;
+		}
+		else {
+			simplified = new SatFormula();
+		}
+		simplified.setComment(formula.getComment());
+
+		int[] lits = arena.getLiterals();
+		int[] buf = new int[16];
+		for (int c = 0; c < arena.size(); c++) {
+			if (dead[c])
+				continue;
+
+			if (buf.length < arena.getClauseLength(c))
+				buf = new int[arena.getClauseLength(c)];
+			int k = 0;
+			for (int i = arena.getClauseStart(c); i < arena.getClauseEnd(c); i++) {
+				if (vals[Math.abs(lits[i])] == 0)
+					buf[k++] = lits[i];
+			}
+
+			int[] clause = Arrays.copyOf(buf, k);
+			if (wsimplified == null)
+				simplified.addClause(clause);
+			else if (weights[c] < 0)
+				wsimplified.addHardClause(clause);
+			else
+				wsimplified.addWeightedClause((int) weights[c], clause);
+		}
+
+		// keep the original numbering
+		simplified.nProps = Math.max(simplified.nProps, nProps);
+		return simplified;
+	}
+
+	/*
+	 * Applies a renumbering of the fixed literals, indexed by old proposition. 
+	 * Fixed propositions mapped to 0 are dropped.
+	 */
+	public void renumber(int[] oldToNew) {
+		int n = 0;
+		for (int i = 0; i < nFixed; i++) {
+			int lit = fixed[i];
+			int q = Math.abs(lit) < oldToNew.length ? oldToNew[Math.abs(lit)] : 0;
+			if (q != 0)
+				fixed[n++] = lit > 0 ? q : -q;
+		}
+		nFixed = n;
+	}
+
+	public void writeReconstructionMap(File file) throws IOException {
+		try (DimacsWriter writer = new DimacsWriter(Channels.newChannel(FileUtils.newOutputStream(file, 1)))) {
+			writer.writeComment("fixed literals\ncost offset " + costOffset);
+			writer.writeByte('v');
+			writer.writeByte(' ');
+			writer.writeClause(fixed, 0, nFixed);
+		}
+	}
+
+	/*
+	 * Overlays the fixed literals in the reconstruction map file onto a model.
+	 */
+	public static void applyReconstructionMap(BitSet model, File file) throws IOException {
+		for (int lit : DimacsParser.parseModel(file)) {
+			if (lit > 0)
+				model.set(lit);
+			else
+				model.clear(-lit);
+		}
+	}
+
+}
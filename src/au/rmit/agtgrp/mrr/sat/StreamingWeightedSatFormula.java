@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.sat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import au.rmit.agtgrp.mrr.utils.FileUtils;
+import au.rmit.agtgrp.mrr.utils.collections.graph.CsrGraph;
+import au.rmit.agtgrp.mrr.utils.collections.graph.UndirectedGraph;
+
+/**
+ * A weighted formula which writes each clause to disk as it is added, rather than
+ * holding it in memory. In the legacy format a fixed-width slot is reserved for the 
+ * "p wcnf" line when the first clause is written, and is filled in when the formula 
+ * is closed. Since that cannot be done in a compressed file, a file whose name ends 
+ * in .gz must be written in the 2022 format.
+ */
+public class StreamingWeightedSatFormula extends WeightedSatFormula {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int HEADER_WIDTH = 48;
+
+	private final File file;
+	private transient FileChannel channel;
+	private transient DimacsWriter writer;
+	private long headerPosition;
+	private boolean started;
+	private int nClauses;
+	private long nLiterals;
+	private boolean closed;
+
+	public StreamingWeightedSatFormula(File file, int hardClauseWeight) throws IOException {
+		this(file, hardClauseWeight, 1);
+	}
+
+	public StreamingWeightedSatFormula(File file, int hardClauseWeight, int nThreads) throws IOException {
+		super(hardClauseWeight);
+		this.file = file;
+		
+		if (file.getAbsoluteFile().getParentFile() != null)
+			file.getAbsoluteFile().getParentFile().mkdirs();
+		
+		if (FileUtils.isGzipFile(file)) {
+			channel = null;
+			writer = new DimacsWriter(Channels.newChannel(FileUtils.newOutputStream(file, nThreads)));
+		}
+		else {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			writer = new DimacsWriter(channel);
+		}
+		headerPosition = -1;
+		started = false;
+		nClauses = 0;
+		nLiterals = 0;
+		closed = false;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void setComment(String comment) {
+		if (started)
+			throw new IllegalStateException("Comment must be set before any clauses are written");
+		super.setComment(comment);
+	}
+
+	@Override
+	public void setFormat(WcnfFormat format) {
+		if (started)
+			throw new IllegalStateException("Format must be set before any clauses are written");
+		super.setFormat(format);
+	}
+
+	@Override
+	protected void appendWeightedClause(int weight, List<Integer> clause) {
+		for (int p : clause)
+			setHighestPropNumber(p);
+		
+		try {
+			startClause(weight);
+			for (int p : clause)
+				writer.writeInt(p);
+			endClause(clause.size());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void appendWeightedClause(int weight, int[] clause) {
+		for (int p : clause)
+			setHighestPropNumber(p);
+		
+		try {
+			startClause(weight);
+			for (int p : clause)
+				writer.writeInt(p);
+			endClause(clause.length);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void startClause(int weight) throws IOException {
+		if (closed)
+			throw new IllegalStateException("Formula has already been written to " + file);
+		if (!started)
+			writeHeaderSlot();
+		writeWeight(writer, weight);
+	}
+
+	private void endClause(int length) throws IOException {
+		writer.endClause();
+		nClauses++;
+		nLiterals += length;
+	}
+
+	private void writeHeaderSlot() throws IOException {
+		started = true;
+		writer.writeComment(comment);
+		if (getFormat().equals(WcnfFormat.MSE2022))
+			return;
+		if (channel == null)
+			throw new IllegalStateException("A compressed wcnf can only be streamed in the " + WcnfFormat.MSE2022 + " format");
+		
+		headerPosition = writer.getBytesWritten();
+		byte[] slot = new byte[HEADER_WIDTH];
+		Arrays.fill(slot, (byte) ' ');
+		slot[HEADER_WIDTH-1] = '\n';
+		writer.writeBytes(slot);
+	}
+
+	/**
+	 * Flushes all clauses and fills in the header. No more clauses can be added afterwards.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		
+		if (!started)
+			writeHeaderSlot();
+		writer.flush();
+
+		if (headerPosition < 0) {
+			writer.close();
+			closed = true;
+			return;
+		}
+
+		byte[] desc = formatDescription().getBytes();
+		if (desc.length > HEADER_WIDTH - 1)
+			throw new IllegalStateException("Header does not fit in reserved slot: " + formatDescription());
+		
+		byte[] slot = new byte[HEADER_WIDTH];
+		Arrays.fill(slot, (byte) ' ');
+		System.arraycopy(desc, 0, slot, 0, desc.length);
+		slot[HEADER_WIDTH-1] = '\n';
+		
+		ByteBuffer header = ByteBuffer.wrap(slot);
+		long pos = headerPosition;
+		while (header.hasRemaining())
+			pos += channel.write(header, pos);
+
+		channel.close();
+		closed = true;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public int getNumClauses() {
+		return nClauses;
+	}
+
+	@Override
+	public long getNumLiterals() {
+		return nLiterals;
+	}
+
+	@Override
+	public int getClauseWeight(int clause) {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public ClauseArena getArena() {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public List<int[]> getClauses() {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public Iterator<int[]> iterator() {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public UndirectedGraph<Integer> getPrimalGraph() {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public CsrGraph getPrimalCsrGraph() {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public CsrGraph getIncidenceCsrGraph() {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public UndirectedGraph<Integer> getIncidenceGraph() {
+		throw new UnsupportedOperationException("Clauses of a streamed formula are not held in memory");
+	}
+
+	@Override
+	public void writeToFile(File out) throws IOException {
+		close();
+		if (!out.exists() || !Files.isSameFile(file.toPath(), out.toPath())) {
+			if (out.getAbsoluteFile().getParentFile() != null)
+				out.getAbsoluteFile().getParentFile().mkdirs();
+			Files.copy(file.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	public void writeToFile(File out, int nThreads) throws IOException {
+		writeToFile(out);
+	}
+
+	@Override
+	public void writeToFileRandomAccess(File out) throws IOException {
+		writeToFile(out);
+	}
+
+	@Override
+	public void writeToStream(OutputStream out) throws IOException {
+		close();
+		Files.copy(file.toPath(), out);
+		out.flush();
+	}
+
+	@Override
+	public String toString() {
+		return formatDescription() + " (streamed to " + file + ")";
+	}
+
+}
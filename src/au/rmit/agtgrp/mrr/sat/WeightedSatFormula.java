@@ -21,31 +21,53 @@
 
 package au.rmit.agtgrp.mrr.sat;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
-import au.rmit.agtgrp.mrr.utils.collections.graph.UndirectedGraph;
-
 public class WeightedSatFormula extends SatFormula {
 	
 	private static final long serialVersionUID = 1L;
+
+	public static enum WcnfFormat {
+		LEGACY,		// "p wcnf" line, hard clauses weighted with the top weight
+		MSE2022		// no "p" line, hard clauses prefixed with "h" (MaxSAT Evaluation 2022 onwards)
+	}
 	
 	private final int hardClauseWeight;
+	private WcnfFormat format;
+	private int[] weights;
 	private long weightsSum;
 
 	public WeightedSatFormula(List<int[]> clauses, int nProps, int hardClauseWeight) {
-		super(clauses, nProps);
-		this.hardClauseWeight = hardClauseWeight;
-		weightsSum = -1;
+		this(hardClauseWeight);
+		for (int[] clause : clauses)
+			addWeightedClause(clause[0], Arrays.copyOfRange(clause, 1, clause.length));
+		this.nProps = Math.max(this.nProps, nProps);
 	}
 	
 	public WeightedSatFormula(int hardClauseWeight) {
 		this.hardClauseWeight = hardClauseWeight;
+		format = WcnfFormat.LEGACY;
+		weights = new int[16];
 		weightsSum = 0;
 	}
 	
 	public int getHardClauseWeight() {
 		return hardClauseWeight;
 	}
+
+	public WcnfFormat getFormat() {
+		return format;
+	}
+
+	public void setFormat(WcnfFormat format) {
+		this.format = format;
+	}
+
+	public long getWeightsSum() {
+		return weightsSum;
+	}
 	
 	@Override
 	public void addClause(List<Integer> clause) {
@@ -65,36 +87,75 @@ public class WeightedSatFormula extends SatFormula {
 		addWeightedClause(hardClauseWeight, clause);
 	}
 
-	
 	public void addWeightedClause(int weight, List<Integer> clause) {
-		int[] combined = new int[clause.size() + 1];
-		combined[0] = weight;
-		int i = 1;
-		for (int p : clause)
-			combined[i++] = p;
-		
-		super.addClause(combined);
 		setWeightSum(weight);
+		appendWeightedClause(weight, clause);
 	}
 	
 	public void addWeightedClause(int weight, int ... clause) {
-		int[] combined = new int[clause.length + 1];
-		combined[0] = weight;
-		for (int i = 0; i < clause.length; i++)
-			combined[i+1] = clause[i];
-		
-		super.addClause(combined);
 		setWeightSum(weight);
+		appendWeightedClause(weight, clause);
 	}
-	
-	private void setWeightSum(int weight) {
-		if (weightsSum == -1) {	
-			weightsSum = 0;
-			for (int[] clause : clauses) {
-				weightsSum+=clause[0];
+
+	protected void appendWeightedClause(int weight, List<Integer> clause) {
+		setWeight(appendClause(clause), weight);
+	}
+
+	protected void appendWeightedClause(int weight, int[] clause) {
+		setWeight(appendClause(clause), weight);
+	}
+
+	public boolean isHardClause(int clause) {
+		return weights[clause] >= hardClauseWeight;
+	}
+
+	/**
+	 * The total weight of the soft clauses a model falsifies, or -1 if it falsifies 
+	 * a hard clause. The model holds one literal per proposition, in order.
+	 */
+	public long getCost(int[] model) {
+		ClauseArena arena = getArena();
+		int[] lits = arena.getLiterals();
+		long cost = 0;
+		for (int c = 0; c < arena.size(); c++) {
+			boolean sat = false;
+			for (int k = arena.getClauseStart(c); k < arena.getClauseEnd(c) && !sat; k++) {
+				int prop = Math.abs(lits[k]);
+				sat = prop <= model.length && model[prop-1] == lits[k];
 			}
+			if (sat)
+				continue;
+			if (isHardClause(c))
+				return -1;
+			cost += weights[c];
 		}
-		
+		return cost;
+	}
+
+	@Override
+	public boolean isWeighted() {
+		return true;
+	}
+
+	@Override
+	public int getClauseWeight(int clause) {
+		if (clause < 0 || clause >= clauses.size())
+			throw new IndexOutOfBoundsException(Integer.toString(clause));
+		return weights[clause];
+	}
+
+	@Override
+	public long getMemoryFootprint() {
+		return super.getMemoryFootprint() + 4L * weights.length;
+	}
+
+	private void setWeight(int clause, int weight) {
+		if (clause >= weights.length)
+			weights = Arrays.copyOf(weights, Math.max(clause + 1, weights.length + (weights.length >> 1)));
+		weights[clause] = weight;
+	}
+	
+	private void setWeightSum(int weight) {
 		if (weight <= 0)
 			throw new IllegalArgumentException("Weights must > 0");
 		if (weightsSum + weight < 0) // wrap around
@@ -104,45 +165,26 @@ public class WeightedSatFormula extends SatFormula {
 	}
 	
 	@Override
-	protected void setHighestPropNumber(int[] clause) {
-		for (int i = 1; i < clause.length; i++) {
-			int p = Math.abs(clause[i]);
-			if (p > nProps)
-				nProps = p;
-			if (p == 0)
-				throw new IllegalArgumentException("Invalid prop: " + Integer.toString(p));
-		}
+	protected void writeHeader(DimacsWriter writer) throws IOException {
+		if (format.equals(WcnfFormat.LEGACY))
+			super.writeHeader(writer);
 	}
-	
+
 	@Override
-	protected String formatDescription() {
-		return "p wcnf " + nProps + " " + clauses.size() + " " + hardClauseWeight;
+	protected void writeClausePrefix(DimacsWriter writer, int clause) throws IOException {
+		writeWeight(writer, weights[clause]);
 	}
-	
-	@Override
-	public UndirectedGraph<Integer> getPrimalGraph() {
-		UndirectedGraph<Integer> primalGraph = new UndirectedGraph<Integer>();
-		for (int[] clause : clauses) {
-			for (int i = 1; i < clause.length; i++) {
-				for (int j = i+1; j < clause.length; j++) {
-					primalGraph.addEdge(clause[i], clause[j]);
-				}
-			}
-		}
-		return primalGraph;
+
+	protected void writeWeight(DimacsWriter writer, int weight) throws IOException {
+		if (format.equals(WcnfFormat.MSE2022) && weight >= hardClauseWeight)
+			writer.writeHardMarker();
+		else
+			writer.writeInt(weight);
 	}
-	
+
 	@Override
-	public UndirectedGraph<Integer> getIncidenceGraph() {
-		UndirectedGraph<Integer> incGraph = new UndirectedGraph<Integer>();
-		int cnum = nProps+1;
-		for (int[] clause : clauses) {
-			for (int i = 1; i < clause.length; i++) {
-				incGraph.addEdge(clause[i], cnum);
-			}
-			cnum++;
-		}
-		return incGraph;
+	protected String formatDescription() {
+		return "p wcnf " + nProps + " " + getNumClauses() + " " + hardClauseWeight;
 	}
 
 }
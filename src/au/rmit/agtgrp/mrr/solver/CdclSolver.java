@@ -0,0 +1,767 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A CDCL SAT solver with two watched literals, VSIDS, phase saving, Luby restarts 
+ * and deletion of learnt clauses by LBD. Clauses can be added between calls, and 
+ * each call can be given assumptions. If a call fails under assumptions, getCore 
+ * returns the assumptions used to derive the conflict.
+ * 
+ * Variables are numbered from 1 and literals are signed, as in DIMACS. Internally 
+ * literal v is coded as 2v and literal -v as 2v+1.
+ */
+public class CdclSolver {
+
+	private static final int RESTART_UNIT = 100;
+	private static final double VAR_DECAY = 0.95;
+	private static final double CLAUSE_DECAY = 0.999;
+	private static final int FIRST_REDUCE = 2000;
+	private static final int REDUCE_INCREMENT = 300;
+
+	private static final byte TRUE = 1;
+	private static final byte FALSE = -1;
+	private static final byte UNDEF = 0;
+
+	private static class Clause {
+		final int[] lits;
+		final boolean learnt;
+		int lbd;
+		double activity;
+		boolean deleted;
+
+		Clause(int[] lits, boolean learnt) {
+			this.lits = lits;
+			this.learnt = learnt;
+		}
+	}
+
+	private static final Comparator<Clause> REDUCE_ORDER = new Comparator<Clause>() {
+		@Override
+		public int compare(Clause c1, Clause c2) {
+			if (c1.lbd != c2.lbd)
+				return Integer.compare(c1.lbd, c2.lbd);
+			return Double.compare(c2.activity, c1.activity);
+		}
+	};
+
+	private int nVars;
+	private boolean ok;
+
+	// indexed by variable
+	private byte[] assigns;
+	private int[] levels;
+	private Clause[] reasons;
+	private boolean[] phases;
+	private double[] activity;
+	private byte[] seen;
+	private int[] heap;
+	private int[] heapIndices; // -1 if not in the heap
+	private int heapSize;
+
+	// indexed by literal code, the clauses watching that literal, each with a 
+	// blocker, another of its literals which satisfies it if true
+	private Clause[][] watches;
+	private int[][] blockers;
+	private int[] nWatches;
+
+	private int[] trail;
+	private int nTrail;
+	private int[] trailLims;
+	private int nLevels;
+	private int[] levelStamps; // indexed by level, for counting the levels of a clause
+	private int lbdStamp;
+	private int qhead;
+
+	private final List<Clause> clauses;
+	private final List<Clause> learnts;
+	private double varInc;
+	private double clauseInc;
+	private long nextReduce;
+	private int nReductions;
+
+	private boolean[] model;
+	private int[] core;
+
+	private long nConflicts;
+	private long nDecisions;
+	private long nPropagations;
+
+	public CdclSolver() {
+		nVars = 0;
+		ok = true;
+		assigns = new byte[1];
+		levels = new int[1];
+		reasons = new Clause[1];
+		phases = new boolean[1];
+		activity = new double[1];
+		seen = new byte[1];
+		heap = new int[1];
+		heapIndices = new int[] { -1 };
+		heapSize = 0;
+		watches = new Clause[2][];
+		blockers = new int[2][];
+		nWatches = new int[2];
+		trail = new int[1];
+		trailLims = new int[1];
+		levelStamps = new int[3];
+		clauses = new ArrayList<Clause>();
+		learnts = new ArrayList<Clause>();
+		varInc = 1;
+		clauseInc = 1;
+		nextReduce = FIRST_REDUCE;
+	}
+
+	public int getNumVariables() {
+		return nVars;
+	}
+
+	public int getNumClauses() {
+		return clauses.size();
+	}
+
+	public int getNumLearnts() {
+		return learnts.size();
+	}
+
+	public long getNumConflicts() {
+		return nConflicts;
+	}
+
+	public long getNumDecisions() {
+		return nDecisions;
+	}
+
+	public long getNumPropagations() {
+		return nPropagations;
+	}
+
+	public int newVariable() {
+		ensureVariables(nVars + 1);
+		return nVars;
+	}
+
+	public void ensureVariables(int n) {
+		if (n <= nVars)
+			return;
+
+		if (n >= assigns.length) {
+			int len = Math.max(n + 1, assigns.length + (assigns.length >> 1));
+			assigns = Arrays.copyOf(assigns, len);
+			levels = Arrays.copyOf(levels, len);
+			reasons = Arrays.copyOf(reasons, len);
+			phases = Arrays.copyOf(phases, len);
+			activity = Arrays.copyOf(activity, len);
+			seen = Arrays.copyOf(seen, len);
+			heap = Arrays.copyOf(heap, len);
+			heapIndices = Arrays.copyOf(heapIndices, len);
+			watches = Arrays.copyOf(watches, 2 * len);
+			blockers = Arrays.copyOf(blockers, 2 * len);
+			nWatches = Arrays.copyOf(nWatches, 2 * len);
+			trail = Arrays.copyOf(trail, len);
+		}
+
+		for (int v = nVars + 1; v <= n; v++) {
+			heapIndices[v] = -1;
+			insertVar(v);
+		}
+		nVars = n;
+	}
+
+	/**
+	 * The initial value of a variable, used until it is first assigned.
+	 */
+	public void setPhase(int lit) {
+		ensureVariables(Math.abs(lit));
+		phases[Math.abs(lit)] = lit > 0;
+	}
+
+	/**
+	 * Returns false if the clauses are now unsatisfiable.
+	 */
+	public boolean addClause(int ... clause) {
+		if (!ok)
+			return false;
+		cancelUntil(0);
+
+		int[] lits = new int[clause.length];
+		for (int i = 0; i < clause.length; i++) {
+			if (clause[i] == 0)
+				throw new IllegalArgumentException("Clause contains 0: " + Arrays.toString(clause));
+			ensureVariables(Math.abs(clause[i]));
+			lits[i] = code(clause[i]);
+		}
+		Arrays.sort(lits);
+
+		// drop duplicates and literals false at the root, and tautologies and satisfied clauses
+		int n = 0;
+		for (int i = 0; i < lits.length; i++) {
+			int lit = lits[i];
+			if (value(lit) == TRUE || (i > 0 && lit == (lits[i-1] ^ 1)))
+				return true;
+			if (value(lit) == FALSE || (n > 0 && lit == lits[n-1]))
+				continue;
+			lits[n++] = lit;
+		}
+
+		if (n == 0) {
+			ok = false;
+		}
+		else if (n == 1) {
+			enqueue(lits[0], null);
+			ok = propagate() == null;
+		}
+		else {
+			Clause c = new Clause(Arrays.copyOf(lits, n), false);
+			clauses.add(c);
+			attach(c);
+		}
+		return ok;
+	}
+
+	/**
+	 * Returns true if the clauses are satisfiable with the assumptions true.
+	 */
+	public boolean solve(int ... assumptions) {
+		model = null;
+		core = null;
+		if (!ok) {
+			core = new int[0];
+			return false;
+		}
+
+		int[] assumed = new int[assumptions.length];
+		for (int i = 0; i < assumptions.length; i++) {
+			ensureVariables(Math.abs(assumptions[i]));
+			assumed[i] = code(assumptions[i]);
+		}
+
+		int status = 0;
+		for (int restart = 0; status == 0; restart++)
+			status = search((long) (luby(restart) * RESTART_UNIT), assumed);
+		cancelUntil(0);
+		return status > 0;
+	}
+
+	/**
+	 * The value of a variable in the model found by the last call to solve.
+	 */
+	public boolean getValue(int var) {
+		if (model == null)
+			throw new IllegalStateException("No model");
+		return var < model.length && model[var];
+	}
+
+	/**
+	 * The model found by the last call to solve, as one literal per variable.
+	 */
+	public int[] getModel() {
+		if (model == null)
+			throw new IllegalStateException("No model");
+		int[] lits = new int[nVars];
+		for (int v = 1; v <= nVars; v++)
+			lits[v-1] = getValue(v) ? v : -v;
+		return lits;
+	}
+
+	/**
+	 * The assumptions of the last failed call to solve that together with the 
+	 * clauses are unsatisfiable. Empty if the clauses alone are unsatisfiable.
+	 */
+	public int[] getCore() {
+		if (core == null)
+			throw new IllegalStateException("No core");
+		return Arrays.copyOf(core, core.length);
+	}
+
+	/*
+	 * Returns 1 if a model is found, -1 if there is none, and 0 to restart after 
+	 * the given number of conflicts.
+	 */
+	private int search(long maxConflicts, int[] assumed) {
+		int nRestartConflicts = 0;
+		while (true) {
+			Clause confl = propagate();
+			if (confl != null) {
+				nConflicts++;
+				nRestartConflicts++;
+				if (nLevels == 0) {
+					ok = false;
+					core = new int[0];
+					return -1;
+				}
+
+				int[] learnt = analyze(confl);
+				cancelUntil(backtrackLevel(learnt));
+				if (learnt.length == 1) {
+					enqueue(learnt[0], null);
+				}
+				else {
+					Clause c = new Clause(learnt, true);
+					c.lbd = computeLbd(learnt);
+					learnts.add(c);
+					attach(c);
+					bumpClause(c);
+					enqueue(learnt[0], c);
+				}
+				varInc /= VAR_DECAY;
+				clauseInc /= CLAUSE_DECAY;
+				continue;
+			}
+
+			if (nRestartConflicts >= maxConflicts) {
+				cancelUntil(0);
+				return 0;
+			}
+			if (nConflicts >= nextReduce) {
+				nextReduce = nConflicts + FIRST_REDUCE + REDUCE_INCREMENT * ++nReductions;
+				reduceLearnts();
+			}
+
+			// assumptions are decided first, one level each
+			int next = -1;
+			while (nLevels < assumed.length) {
+				int a = assumed[nLevels];
+				if (value(a) == TRUE) {
+					newLevel();
+				}
+				else if (value(a) == FALSE) {
+					analyzeFinal(a);
+					return -1;
+				}
+				else {
+					next = a;
+					break;
+				}
+			}
+
+			if (next == -1) {
+				next = pickBranchLiteral();
+				if (next == -1) {
+					model = new boolean[nVars + 1];
+					for (int v = 1; v <= nVars; v++)
+						model[v] = assigns[v] == TRUE;
+					return 1;
+				}
+				nDecisions++;
+			}
+			newLevel();
+			enqueue(next, null);
+		}
+	}
+
+	private Clause propagate() {
+		while (qhead < nTrail) {
+			int falseLit = trail[qhead++] ^ 1;
+			nPropagations++;
+			Clause[] ws = watches[falseLit];
+			int[] bs = blockers[falseLit];
+			int n = nWatches[falseLit];
+			int i = 0;
+			int j = 0;
+			while (i < n) {
+				int blocker = bs[i];
+				Clause c = ws[i++];
+				if (value(blocker) == TRUE) {
+					bs[j] = blocker;
+					ws[j++] = c;
+					continue;
+				}
+				if (c.deleted)
+					continue;
+
+				int[] lits = c.lits;
+				if (lits[0] == falseLit) {
+					lits[0] = lits[1];
+					lits[1] = falseLit;
+				}
+				int first = lits[0];
+				if (value(first) == TRUE) {
+					bs[j] = first;
+					ws[j++] = c;
+					continue;
+				}
+
+				boolean moved = false;
+				for (int k = 2; k < lits.length; k++) {
+					if (value(lits[k]) != FALSE) {
+						lits[1] = lits[k];
+						lits[k] = falseLit;
+						watch(lits[1], c, first);
+						moved = true;
+						break;
+					}
+				}
+				if (moved)
+					continue;
+
+				bs[j] = first;
+				ws[j++] = c;
+				if (value(first) == FALSE) {
+					while (i < n) {
+						bs[j] = bs[i];
+						ws[j++] = ws[i++];
+					}
+					nWatches[falseLit] = j;
+					qhead = nTrail;
+					return c;
+				}
+				enqueue(first, c);
+			}
+			nWatches[falseLit] = j;
+		}
+		return null;
+	}
+
+	/*
+	 * First UIP learning. The asserting literal is first in the learnt clause.
+	 */
+	private int[] analyze(Clause confl) {
+		int[] learnt = new int[nLevels + 1];
+		int nLearnt = 1;
+		int pathCount = 0;
+		int p = -1;
+		int index = nTrail - 1;
+
+		do {
+			if (confl.learnt)
+				bumpClause(confl);
+			int[] lits = confl.lits;
+			for (int k = (p == -1 ? 0 : 1); k < lits.length; k++) {
+				int q = lits[k];
+				int v = q >> 1;
+				if (seen[v] == 0 && levels[v] > 0) {
+					bumpVar(v);
+					seen[v] = 1;
+					if (levels[v] >= nLevels)
+						pathCount++;
+					else {
+						if (nLearnt == learnt.length)
+							learnt = Arrays.copyOf(learnt, 2 * learnt.length);
+						learnt[nLearnt++] = q;
+					}
+				}
+			}
+
+			while (seen[trail[index--] >> 1] == 0);
+			p = trail[index + 1];
+			confl = reasons[p >> 1];
+			seen[p >> 1] = 0;
+			pathCount--;
+		} while (pathCount > 0);
+		learnt[0] = p ^ 1;
+
+		// drop literals implied by the rest of the clause through their reasons
+		int[] minimised = new int[nLearnt];
+		minimised[0] = learnt[0];
+		int n = 1;
+		for (int i = 1; i < nLearnt; i++) {
+			if (!isRedundant(learnt[i]))
+				minimised[n++] = learnt[i];
+		}
+		for (int i = 1; i < nLearnt; i++)
+			seen[learnt[i] >> 1] = 0;
+
+		return Arrays.copyOf(minimised, n);
+	}
+
+	private boolean isRedundant(int lit) {
+		Clause r = reasons[lit >> 1];
+		if (r == null)
+			return false;
+		for (int k = 1; k < r.lits.length; k++) {
+			int v = r.lits[k] >> 1;
+			if (seen[v] == 0 && levels[v] > 0)
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Moves the literal with the highest level after the asserting one to position 1, 
+	 * so that it is watched, and returns its level.
+	 */
+	private int backtrackLevel(int[] learnt) {
+		if (learnt.length == 1)
+			return 0;
+		int max = 1;
+		for (int i = 2; i < learnt.length; i++) {
+			if (levels[learnt[i] >> 1] > levels[learnt[max] >> 1])
+				max = i;
+		}
+		int tmp = learnt[1];
+		learnt[1] = learnt[max];
+		learnt[max] = tmp;
+		return levels[learnt[1] >> 1];
+	}
+
+	private int computeLbd(int[] lits) {
+		lbdStamp++;
+		int lbd = 0;
+		for (int lit : lits) {
+			int level = levels[lit >> 1];
+			if (levelStamps[level] != lbdStamp) {
+				levelStamps[level] = lbdStamp;
+				lbd++;
+			}
+		}
+		return lbd;
+	}
+
+	/*
+	 * Collects the assumptions that imply the negation of a, a false assumption.
+	 */
+	private void analyzeFinal(int a) {
+		List<Integer> failed = new ArrayList<Integer>();
+		failed.add(decode(a));
+		seen[a >> 1] = 1;
+		for (int i = nTrail - 1; nLevels > 0 && i >= trailLims[0]; i--) {
+			int v = trail[i] >> 1;
+			if (seen[v] == 0)
+				continue;
+			Clause r = reasons[v];
+			if (r == null) {
+				failed.add(decode(trail[i])); // above the root, only assumptions are decided here
+			}
+			else {
+				for (int k = 1; k < r.lits.length; k++) {
+					if (levels[r.lits[k] >> 1] > 0)
+						seen[r.lits[k] >> 1] = 1;
+				}
+			}
+			seen[v] = 0;
+		}
+		seen[a >> 1] = 0;
+
+		core = new int[failed.size()];
+		for (int i = 0; i < core.length; i++)
+			core[i] = failed.get(i);
+	}
+
+	private void reduceLearnts() {
+		Collections.sort(learnts, REDUCE_ORDER);
+		int n = 0;
+		for (int i = 0; i < learnts.size(); i++) {
+			Clause c = learnts.get(i);
+			if (i < learnts.size() / 2 || c.lbd <= 2 || isLocked(c))
+				learnts.set(n++, c);
+			else
+				c.deleted = true;
+		}
+		learnts.subList(n, learnts.size()).clear();
+		purgeWatches();
+	}
+
+	private boolean isLocked(Clause c) {
+		int v = c.lits[0] >> 1;
+		return reasons[v] == c && value(c.lits[0]) == TRUE;
+	}
+
+	private int pickBranchLiteral() {
+		while (heapSize > 0) {
+			int v = removeMax();
+			if (assigns[v] == UNDEF)
+				return phases[v] ? 2 * v : 2 * v + 1;
+		}
+		return -1;
+	}
+
+	private void attach(Clause c) {
+		watch(c.lits[0], c, c.lits[1]);
+		watch(c.lits[1], c, c.lits[0]);
+	}
+
+	private void watch(int lit, Clause c, int blocker) {
+		if (watches[lit] == null) {
+			watches[lit] = new Clause[4];
+			blockers[lit] = new int[4];
+		}
+		else if (nWatches[lit] == watches[lit].length) {
+			watches[lit] = Arrays.copyOf(watches[lit], 2 * nWatches[lit]);
+			blockers[lit] = Arrays.copyOf(blockers[lit], 2 * nWatches[lit]);
+		}
+		blockers[lit][nWatches[lit]] = blocker;
+		watches[lit][nWatches[lit]++] = c;
+	}
+
+	/*
+	 * Removes deleted clauses from the watch lists.
+	 */
+	private void purgeWatches() {
+		for (int lit = 2; lit <= 2 * nVars + 1; lit++) {
+			Clause[] ws = watches[lit];
+			int[] bs = blockers[lit];
+			int j = 0;
+			for (int i = 0; i < nWatches[lit]; i++) {
+				if (!ws[i].deleted) {
+					bs[j] = bs[i];
+					ws[j++] = ws[i];
+				}
+			}
+			nWatches[lit] = j;
+		}
+	}
+
+	private void enqueue(int lit, Clause reason) {
+		int v = lit >> 1;
+		assigns[v] = (lit & 1) == 0 ? TRUE : FALSE;
+		levels[v] = nLevels;
+		reasons[v] = reason;
+		trail[nTrail++] = lit;
+	}
+
+	private void newLevel() {
+		if (nLevels == trailLims.length) { // assumptions may take more levels than there are variables
+			trailLims = Arrays.copyOf(trailLims, 2 * trailLims.length);
+			levelStamps = Arrays.copyOf(levelStamps, 2 * trailLims.length + 1);
+		}
+		trailLims[nLevels++] = nTrail;
+	}
+
+	private void cancelUntil(int level) {
+		if (nLevels <= level)
+			return;
+		for (int i = nTrail - 1; i >= trailLims[level]; i--) {
+			int v = trail[i] >> 1;
+			phases[v] = assigns[v] == TRUE;
+			assigns[v] = UNDEF;
+			reasons[v] = null;
+			if (heapIndices[v] < 0)
+				insertVar(v);
+		}
+		nTrail = trailLims[level];
+		qhead = nTrail;
+		nLevels = level;
+	}
+
+	private byte value(int lit) {
+		byte val = assigns[lit >> 1];
+		return (lit & 1) == 0 ? val : (byte) -val;
+	}
+
+	private static int code(int lit) {
+		return lit > 0 ? 2 * lit : -2 * lit + 1;
+	}
+
+	private static int decode(int code) {
+		return (code & 1) == 0 ? code >> 1 : -(code >> 1);
+	}
+
+	private void bumpVar(int v) {
+		activity[v] += varInc;
+		if (activity[v] > 1e100) {
+			for (int u = 1; u <= nVars; u++)
+				activity[u] *= 1e-100;
+			varInc *= 1e-100;
+		}
+		if (heapIndices[v] >= 0)
+			siftUp(heapIndices[v]);
+	}
+
+	private void bumpClause(Clause c) {
+		c.activity += clauseInc;
+		if (c.activity > 1e20) {
+			for (Clause l : learnts)
+				l.activity *= 1e-20;
+			clauseInc *= 1e-20;
+		}
+	}
+
+	/*
+	 * The Luby sequence 1, 1, 2, 1, 1, 2, 4, ...
+	 */
+	private static double luby(int x) {
+		int size = 1;
+		int seq = 0;
+		while (size < x + 1) {
+			seq++;
+			size = 2 * size + 1;
+		}
+		while (size - 1 != x) {
+			size = (size - 1) >> 1;
+			seq--;
+			x = x % size;
+		}
+		return Math.pow(2, seq);
+	}
+
+	/*
+	 * Binary max-heap of variables by activity
+	 */
+
+	private void insertVar(int v) {
+		heap[heapSize] = v;
+		heapIndices[v] = heapSize;
+		siftUp(heapSize++);
+	}
+
+	private int removeMax() {
+		int v = heap[0];
+		heapIndices[v] = -1;
+		heapSize--;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapIndices[heap[0]] = 0;
+			siftDown(0);
+		}
+		return v;
+	}
+
+	private void siftUp(int i) {
+		int v = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (activity[heap[parent]] >= activity[v])
+				break;
+			heap[i] = heap[parent];
+			heapIndices[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = v;
+		heapIndices[v] = i;
+	}
+
+	private void siftDown(int i) {
+		int v = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]])
+				child++;
+			if (activity[heap[child]] <= activity[v])
+				break;
+			heap[i] = heap[child];
+			heapIndices[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = v;
+		heapIndices[v] = i;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.solver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import au.rmit.agtgrp.mrr.sat.DimacsParser;
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+
+/**
+ * Runs a MaxSAT solver executable on a temporary wcnf file. The command is given 
+ * the file name as its last argument, and must print an "s" status line and a "v" 
+ * model line in the MaxSAT evaluation format.
+ */
+public class ExternalMaxSatSolver implements MaxSatSolver {
+
+	private final List<String> command;
+	private final int nThreads;
+	private final boolean verbose;
+
+	public ExternalMaxSatSolver(String command, int nThreads, boolean verbose) {
+		this(Arrays.asList(command.trim().split("\\s+")), nThreads, verbose);
+	}
+
+	public ExternalMaxSatSolver(List<String> command, int nThreads, boolean verbose) {
+		if (command.isEmpty() || command.get(0).isEmpty())
+			throw new IllegalArgumentException("No solver command");
+		this.command = new ArrayList<String>(command);
+		this.nThreads = nThreads;
+		this.verbose = verbose;
+	}
+
+	@Override
+	public int[] solve(WeightedSatFormula formula) throws IOException {
+		File wcnfFile = File.createTempFile("mrr", ".wcnf");
+		File outFile = File.createTempFile("mrr", ".out");
+		try {
+			formula.writeToFile(wcnfFile, nThreads);
+
+			List<String> cmd = new ArrayList<String>(command);
+			cmd.add(wcnfFile.getAbsolutePath());
+			if (verbose)
+				System.out.println("Running " + cmd);
+
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(outFile);
+			Process process = pb.start();
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				process.destroy();
+				throw new RuntimeException(e);
+			}
+
+			String status = getStatus(outFile);
+			if (status == null)
+				throw new IOException("No status line in output of " + command.get(0) + ", exit code " + process.exitValue());
+			if (status.equals("UNSATISFIABLE"))
+				return null;
+			if (!status.equals("OPTIMUM FOUND"))
+				throw new IOException(command.get(0) + " did not find an optimum: " + status);
+
+			return DimacsParser.parseModel(outFile);
+
+		} finally {
+			wcnfFile.delete();
+			outFile.delete();
+		}
+	}
+
+	private String getStatus(File outFile) throws IOException {
+		String status = null;
+		try (BufferedReader br = new BufferedReader(new FileReader(outFile))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("s "))
+					status = line.substring(2).trim();
+				else if (verbose && !line.startsWith("v "))
+					System.out.println(line);
+			}
+		}
+		return status;
+	}
+
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.solver;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import au.rmit.agtgrp.mrr.encoder.PcToWcnfEncoder;
+import au.rmit.agtgrp.mrr.encoder.PropositionMap;
+import au.rmit.agtgrp.mrr.fol.symbol.Variable;
+import au.rmit.agtgrp.mrr.pddl.Operator;
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+import au.rmit.agtgrp.mrr.utils.collections.graph.DirectedGraph;
+import au.rmit.agtgrp.mrr.utils.collections.graph.GraphUtils;
+
+/**
+ * Solves a formula encoded without transitivity constraints, such as with 
+ * AcyclicityOpt.LAZY. After each solve, the transitivity constraints violated 
+ * by the model's precedence relation are added, and the formula is solved 
+ * again, until the relation is transitive and so, given antisymmetry, acyclic.
+ */
+public class LazyTransitivitySolver implements MaxSatSolver {
+
+	private final PcToWcnfEncoder encoder;
+	private final MaxSatSolver solver;
+	private final boolean verbose;
+
+	private int nIterations;
+	private int nAddedClauses;
+
+	public LazyTransitivitySolver(PcToWcnfEncoder encoder, MaxSatSolver solver, boolean verbose) {
+		this.encoder = encoder;
+		this.solver = solver;
+		this.verbose = verbose;
+	}
+
+	public int getNumIterations() {
+		return nIterations;
+	}
+
+	public int getNumAddedClauses() {
+		return nAddedClauses;
+	}
+
+	/**
+	 * The formula must be the one returned by the encoder's encodeConstraints, 
+	 * and is extended in place.
+	 */
+	@Override
+	public int[] solve(WeightedSatFormula formula) throws IOException {
+		PropositionMap propMap = encoder.getPropositionMap();
+		int n = propMap.getNumSteps();
+		int[] succs = new int[n];
+		int[][] adj = new int[n][];
+
+		nIterations = 0;
+		nAddedClauses = 0;
+		while (true) {
+			nIterations++;
+			int[] model = solver.solve(formula);
+			if (model == null)
+				return null;
+
+			BitSet soln = new BitSet();
+			for (int lit : model) {
+				if (lit > 0)
+					soln.set(lit);
+			}
+
+			// successors of each step in the model's precedence relation
+			for (int i = 0; i < n; i++) {
+				int count = 0;
+				for (int j = 0; j < n; j++) {
+					if (i != j && isTrue(propMap.getPrecedenceProposition(i, j), soln))
+						succs[count++] = j;
+				}
+				adj[i] = Arrays.copyOf(succs, count);
+			}
+
+			int nViolated = 0;
+			for (int i = 0; i < n; i++) {
+				for (int a = 0; a < adj[i].length; a++) {
+					int j = adj[i][a];
+					for (int b = 0; b < adj[j].length; b++) {
+						int l = adj[j][b];
+						if (l == i || isTrue(propMap.getPrecedenceProposition(i, l), soln))
+							continue;
+						encoder.addTransitivityConstraint(i, j, l);
+						nViolated++;
+					}
+				}
+			}
+
+			if (verbose)
+				System.out.println("Lazy transitivity iteration " + nIterations + ": " + nViolated + " violated constraints");
+			nAddedClauses += nViolated;
+
+			if (nViolated == 0) {
+				checkClosedAndAcyclic(propMap, soln);
+				System.out.println("Lazy transitivity: " + nIterations + " iterations, " + nAddedClauses + " constraints added");
+				return model;
+			}
+		}
+	}
+
+	private static boolean isTrue(int prop, BitSet soln) {
+		return prop != 0 && soln.get(prop);
+	}
+
+	private void checkClosedAndAcyclic(PropositionMap propMap, BitSet soln) {
+		DirectedGraph<Operator<Variable>> precGraph = new DirectedGraph<Operator<Variable>>();
+		int n = propMap.getNumSteps();
+		for (int i = 0; i < n; i++) {
+			precGraph.addVertex(propMap.getStep(i));
+			for (int j = 0; j < n; j++) {
+				if (i != j && isTrue(propMap.getPrecedenceProposition(i, j), soln))
+					precGraph.addEdge(propMap.getStep(i), propMap.getStep(j));
+			}
+		}
+
+		if (!GraphUtils.isTransitive(precGraph))
+			throw new IllegalStateException("Precedence relation is not transitive");
+		try {
+			GraphUtils.getLinearExtension(precGraph);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("Precedence relation is cyclic");
+		}
+		if (verbose)
+			System.out.println("Precedence relation is transitive and acyclic, " + precGraph.getAllEdges().size() + " edges");
+	}
+
+}
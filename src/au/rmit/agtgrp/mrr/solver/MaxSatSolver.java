@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.solver;
+
+import java.io.IOException;
+
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+
+/**
+ * A MaxSAT solver. Implementations may be called repeatedly on a formula that 
+ * grows between calls.
+ */
+public interface MaxSatSolver {
+
+	/**
+	 * Returns an optimal model as a list of literals, or null if the hard clauses 
+	 * are unsatisfiable.
+	 */
+	int[] solve(WeightedSatFormula formula) throws IOException;
+
+}
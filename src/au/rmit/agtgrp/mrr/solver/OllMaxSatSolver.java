@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.solver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import au.rmit.agtgrp.mrr.sat.ClauseArena;
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+
+/**
+ * A core-guided MaxSAT solver using the OLL algorithm, in process, on top of 
+ * CdclSolver. Each soft clause is satisfied by assuming a literal. When the 
+ * assumptions are unsatisfiable, the weight of the core is added to the lower 
+ * bound, and the core is relaxed with a totalizer whose outputs count the 
+ * violated assumptions, so that later cores can only increase that count one 
+ * at a time. The first model satisfying all remaining assumptions is optimal.
+ * 
+ * Calls on the same formula are incremental: clauses added since the last call 
+ * are loaded, and the cores and relaxations found so far are kept.
+ */
+public class OllMaxSatSolver implements MaxSatSolver {
+
+	private static final int CORE_TRIM_ROUNDS = 3;
+
+	/*
+	 * The assumption that at most k of a totalizer's inputs are true, i.e. 
+	 * that outputs[k] is false.
+	 */
+	private static class Bound {
+		final int[] outputs;
+		final int k;
+
+		Bound(int[] outputs, int k) {
+			this.outputs = outputs;
+			this.k = k;
+		}
+	}
+
+	private final boolean verbose;
+
+	private WeightedSatFormula formula;
+	private CdclSolver sat;
+	private int nLoaded;
+	private int[] vars; // indexed by proposition, the solver variable, or 0
+
+	// assumption literals, in the order they were added, with their remaining weights
+	private Map<Integer, Long> weights;
+	private Map<Integer, Bound> bounds;
+	private long lowerBound;
+	private int nCores;
+
+	public OllMaxSatSolver(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	public long getLowerBound() {
+		return lowerBound;
+	}
+
+	public int getNumCores() {
+		return nCores;
+	}
+
+	public CdclSolver getSatSolver() {
+		return sat;
+	}
+
+	@Override
+	public int[] solve(WeightedSatFormula formula) {
+		if (formula != this.formula)
+			reset(formula);
+
+		if (!loadClauses())
+			return null;
+
+		while (true) {
+			int[] assumptions = getAssumptions();
+			if (sat.solve(assumptions))
+				break;
+
+			int[] core = trimCore(sat.getCore());
+			if (core.length == 0)
+				return null;
+			relax(core);
+		}
+
+		int[] model = new int[formula.getNumProps()];
+		for (int prop = 1; prop <= model.length; prop++)
+			model[prop-1] = prop < vars.length && vars[prop] != 0 && sat.getValue(vars[prop]) ? prop : -prop;
+
+		long cost = formula.getCost(model);
+		if (cost != lowerBound)
+			throw new IllegalStateException("Model cost " + cost + " does not match lower bound " + lowerBound);
+		System.out.println("MaxSAT optimum: " + cost + ", cores: " + nCores + ", conflicts: " + sat.getNumConflicts());
+		return model;
+	}
+
+	private void reset(WeightedSatFormula formula) {
+		this.formula = formula;
+		sat = new CdclSolver();
+		nLoaded = 0;
+		vars = new int[formula.getNumProps() + 1];
+		weights = new LinkedHashMap<Integer, Long>();
+		bounds = new HashMap<Integer, Bound>();
+		lowerBound = 0;
+		nCores = 0;
+	}
+
+	/*
+	 * Loads the clauses added since the last call. Returns false if the hard 
+	 * clauses are unsatisfiable.
+	 */
+	private boolean loadClauses() {
+		ClauseArena arena = formula.getArena();
+		int nClauses = arena.size();
+		for (int c = nLoaded; c < nClauses; c++) {
+			int[] clause = arena.getClause(c);
+			for (int i = 0; i < clause.length; i++)
+				clause[i] = toSolver(clause[i]);
+
+			if (formula.isHardClause(c)) {
+				if (!sat.addClause(clause))
+					return false;
+			}
+			else if (clause.length == 0) {
+				lowerBound += formula.getClauseWeight(c);
+			}
+			else if (clause.length == 1) {
+				addWeight(clause[0], formula.getClauseWeight(c));
+			}
+			else {
+				// clause or relaxation literal, and assume the relaxation literal false
+				int r = sat.newVariable();
+				int[] relaxed = Arrays.copyOf(clause, clause.length + 1);
+				relaxed[clause.length] = r;
+				sat.addClause(relaxed);
+				addWeight(-r, formula.getClauseWeight(c));
+			}
+		}
+		nLoaded = nClauses;
+		return true;
+	}
+
+	private int toSolver(int lit) {
+		int prop = Math.abs(lit);
+		if (prop >= vars.length)
+			vars = Arrays.copyOf(vars, Math.max(prop + 1, vars.length + (vars.length >> 1)));
+		if (vars[prop] == 0)
+			vars[prop] = sat.newVariable();
+		return lit > 0 ? vars[prop] : -vars[prop];
+	}
+
+	private void addWeight(int assumption, long weight) {
+		Long w = weights.get(assumption);
+		weights.put(assumption, w == null ? weight : w + weight);
+	}
+
+	private int[] getAssumptions() {
+		int[] assumptions = new int[weights.size()];
+		int n = 0;
+		for (Map.Entry<Integer, Long> entry : weights.entrySet()) {
+			if (entry.getValue() > 0)
+				assumptions[n++] = entry.getKey();
+		}
+		return Arrays.copyOf(assumptions, n);
+	}
+
+	/*
+	 * Solves again with only the core as assumptions, while that gives a smaller core.
+	 */
+	private int[] trimCore(int[] core) {
+		for (int round = 0; round < CORE_TRIM_ROUNDS && core.length > 1; round++) {
+			if (sat.solve(core))
+				throw new IllegalStateException("Core is satisfiable");
+			int[] trimmed = sat.getCore();
+			if (trimmed.length >= core.length)
+				break;
+			core = trimmed;
+		}
+		return core;
+	}
+
+	private void relax(int[] core) {
+		long minWeight = Long.MAX_VALUE;
+		for (int a : core)
+			minWeight = Math.min(minWeight, weights.get(a));
+
+		lowerBound += minWeight;
+		nCores++;
+		if (verbose)
+			System.out.println("Core " + nCores + ": " + core.length + " assumptions, weight " + minWeight + ", lower bound " + lowerBound + ", conflicts " + sat.getNumConflicts());
+
+		for (int a : core) {
+			long w = weights.get(a) - minWeight;
+			if (w == 0)
+				weights.remove(a);
+			else
+				weights.put(a, w);
+
+			// at most k violated has failed, so allow at most k+1 at the same weight
+			Bound bound = bounds.get(a);
+			if (bound != null && bound.k + 1 < bound.outputs.length) {
+				int next = -bound.outputs[bound.k + 1];
+				bounds.put(next, new Bound(bound.outputs, bound.k + 1));
+				addWeight(next, minWeight);
+			}
+		}
+
+		if (core.length == 1) {
+			sat.addClause(-core[0]);
+			return;
+		}
+
+		// one of the core's assumptions is violated, so assume at most one is
+		int[] violated = new int[core.length];
+		for (int i = 0; i < core.length; i++)
+			violated[i] = -core[i];
+		int[] outputs = buildTotalizer(violated, 0, violated.length);
+		sat.addClause(outputs[0]);
+		bounds.put(-outputs[1], new Bound(outputs, 1));
+		addWeight(-outputs[1], minWeight);
+	}
+
+	/*
+	 * Returns outputs o where o[j] is implied by at least j+1 of the inputs being true.
+	 */
+	private int[] buildTotalizer(int[] inputs, int from, int to) {
+		if (to - from == 1)
+			return new int[] { inputs[from] };
+
+		int mid = (from + to) >>> 1;
+		int[] left = buildTotalizer(inputs, from, mid);
+		int[] right = buildTotalizer(inputs, mid, to);
+		int[] outputs = new int[left.length + right.length];
+		for (int j = 0; j < outputs.length; j++)
+			outputs[j] = sat.newVariable();
+
+		for (int i = 0; i <= left.length; i++) {
+			for (int j = 0; j <= right.length; j++) {
+				if (i + j == 0)
+					continue;
+				if (i == 0)
+					sat.addClause(-right[j-1], outputs[j-1]);
+				else if (j == 0)
+					sat.addClause(-left[i-1], outputs[i-1]);
+				else
+					sat.addClause(-left[i-1], -right[j-1], outputs[i+j-1]);
+			}
+		}
+		return outputs;
+	}
+
+}
@@ -21,6 +21,7 @@
 
 package au.rmit.agtgrp.mrr.utils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -28,8 +29,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
@@ -47,6 +50,7 @@ import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 public class FileUtils {
 
@@ -210,10 +214,41 @@ public class FileUtils {
 		sysMethod.invoke(sysLoader, new Object[]{ jarFile.toUri().toURL()});
 	}
 
+	public static boolean isGzipFile(File file) {
+		return file.getName().endsWith(".gz");
+	}
+
+	/*
+	 * Files whose name ends in .gz are gzip compressed, using nThreads threads.
+	 */
+	public static OutputStream newOutputStream(File file, int nThreads) throws IOException {
+		OutputStream out = new FileOutputStream(file.getAbsolutePath());
+		if (isGzipFile(file))
+			return new ParallelGzipOutputStream(out, nThreads);
+		return new BufferedOutputStream(out, 1 << 16);
+	}
+
+	/*
+	 * Gzip compressed files are detected by their magic number, not their name.
+	 */
+	public static InputStream newInputStream(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file.getAbsolutePath()), 1 << 16);
+		in.mark(2);
+		int b1 = in.read();
+		int b2 = in.read();
+		in.reset();
+		if (b1 == 0x1f && b2 == 0x8b)
+			return new GZIPInputStream(in, 1 << 16);
+		return in;
+	}
+
 	public static void serialize(Object o, File file) {
+		serialize(o, file, 1);
+	}
+
+	public static void serialize(Object o, File file, int nThreads) {
 		try {
-			String fileName = file.getAbsolutePath();
-			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+			ObjectOutputStream out = new ObjectOutputStream(newOutputStream(file, nThreads));
 			out.writeObject(o);
 			out.close();
 		}
@@ -226,8 +261,7 @@ public class FileUtils {
 	public static <T> T deserialize(File file) {
 		try
 		{
-			String fileName = file.getAbsolutePath();
-			ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName));
+			ObjectInputStream in = new ObjectInputStream(newInputStream(file));
 			T t = (T) in.readObject();
 			in.close();
 			return t;
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compresses fixed-size blocks in parallel. Each block is written as a
+ * separate gzip member, and the members are written in order. Concatenated
+ * members form a valid gzip file, which GZIPInputStream, zlib and gzip all read.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final Deque<Future<byte[]>> pending;
+	private final int level;
+
+	private byte[] block;
+	private int blockLen;
+	private long nMembers;
+	private boolean closed;
+
+	public ParallelGzipOutputStream(OutputStream out, int nThreads) {
+		this(out, nThreads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int nThreads, int blockSize, int level) {
+		this.out = out;
+		this.level = level;
+		nThreads = Math.max(nThreads, 1);
+		executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "gzip");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		maxPending = 2 * nThreads;
+		pending = new ArrayDeque<Future<byte[]>>();
+		block = new byte[blockSize];
+		blockLen = 0;
+		nMembers = 0;
+		closed = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockLen == block.length)
+			submitBlock();
+		block[blockLen++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (blockLen == block.length)
+				submitBlock();
+			int n = Math.min(len, block.length - blockLen);
+			System.arraycopy(b, off, block, blockLen, n);
+			blockLen += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		if (blockLen == 0)
+			return;
+
+		final byte[] data = blockLen == block.length ? block : Arrays.copyOf(block, blockLen);
+		pending.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return compress(data);
+			}
+		}));
+		block = new byte[block.length];
+		blockLen = 0;
+
+		while (pending.size() > maxPending)
+			writeNext();
+	}
+
+	private void writeNext() throws IOException {
+		try {
+			out.write(pending.poll().get());
+			nMembers++;
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private byte[] compress(byte[] data) {
+		ByteArrayOutputStream member = new ByteArrayOutputStream(data.length / 4 + HEADER.length + 8);
+		member.write(HEADER, 0, HEADER.length);
+
+		Deflater deflater = new Deflater(level, true);
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] buf = new byte[1 << 16];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			member.write(buf, 0, n);
+		}
+		deflater.end();
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		writeInt(member, (int) crc.getValue());
+		writeInt(member, data.length);
+		return member.toByteArray();
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write(v & 0xff);
+		out.write((v >> 8) & 0xff);
+		out.write((v >> 16) & 0xff);
+		out.write((v >> 24) & 0xff);
+	}
+
+	/*
+	 * Compresses and writes all buffered data. Each flush ends a gzip member.
+	 */
+	@Override
+	public void flush() throws IOException {
+		submitBlock();
+		while (!pending.isEmpty())
+			writeNext();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			flush();
+			if (nMembers == 0) // an empty file is still one member
+				out.write(compress(new byte[0]));
+			out.flush();
+		} finally {
+			closed = true;
+			executor.shutdown();
+			out.close();
+		}
+	}
+
+}
@@ -43,6 +43,16 @@ public class TimeUtils {
 				? (bean.getCurrentThreadCpuTime() - bean.getCurrentThreadUserTime()) : 0L;
 	}
 	
+	/** Get bytes allocated by the current thread, or 0 if this is not supported. */
+	public static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return 0L;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled())
+			return 0L;
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
 	
 	private TimeUtils() { }
 
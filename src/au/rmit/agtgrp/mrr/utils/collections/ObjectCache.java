@@ -36,7 +36,10 @@ public class ObjectCache<T> {
 		cache = new WeakHashMap<T, WeakReference<? extends T>>(initCapacity);
 	}
 		
-	public <S extends T> S get(S obj) {
+	/*
+	 * Synchronized, as objects are interned from encoder worker threads.
+	 */
+	public synchronized <S extends T> S get(S obj) {
 		@SuppressWarnings("unchecked")
 		WeakReference<S> reference = (WeakReference<S>) cache.get(obj);
 		if (reference != null) {
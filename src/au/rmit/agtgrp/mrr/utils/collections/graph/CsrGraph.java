@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.utils.collections.graph;
+
+import java.util.Arrays;
+
+/**
+ * An immutable undirected graph over the vertices 0..n-1, stored in compressed 
+ * sparse row form: the neighbours of vertex v are adj[rowStart[v]..rowStart[v+1]),
+ * sorted and without duplicates.
+ */
+public class CsrGraph {
+
+	private final int nVertices;
+	private final int[] rowStart;
+	private final int[] adj;
+
+	private CsrGraph(int nVertices, int[] rowStart, int[] adj) {
+		this.nVertices = nVertices;
+		this.rowStart = rowStart;
+		this.adj = adj;
+	}
+
+	public int getNumVertices() {
+		return nVertices;
+	}
+
+	public int getNumEdges() {
+		return adj.length / 2;
+	}
+
+	public int getDegree(int v) {
+		return rowStart[v+1] - rowStart[v];
+	}
+
+	public int getMaxDegree() {
+		int max = 0;
+		for (int v = 0; v < nVertices; v++)
+			max = Math.max(max, getDegree(v));
+		return max;
+	}
+
+	public int getRowStart(int v) {
+		return rowStart[v];
+	}
+
+	public int getRowEnd(int v) {
+		return rowStart[v+1];
+	}
+
+	/**
+	 * The backing adjacency array, for iteration between getRowStart(v) and getRowEnd(v).
+	 */
+	public int[] getAdjacency() {
+		return adj;
+	}
+
+	public int[] getNeighbours(int v) {
+		return Arrays.copyOfRange(adj, rowStart[v], rowStart[v+1]);
+	}
+
+	public boolean containsEdge(int u, int v) {
+		return Arrays.binarySearch(adj, rowStart[u], rowStart[u+1], v) >= 0;
+	}
+
+	/**
+	 * The connected component of each vertex, numbered from 0 in order of lowest vertex.
+	 */
+	public int[] getConnectedComponents() {
+		int[] comp = new int[nVertices];
+		Arrays.fill(comp, -1);
+		int[] stack = new int[nVertices];
+		int nComps = 0;
+		for (int s = 0; s < nVertices; s++) {
+			if (comp[s] >= 0)
+				continue;
+
+			int top = 0;
+			stack[top++] = s;
+			comp[s] = nComps;
+			while (top > 0) {
+				int v = stack[--top];
+				for (int i = rowStart[v]; i < rowStart[v+1]; i++) {
+					if (comp[adj[i]] < 0) {
+						comp[adj[i]] = nComps;
+						stack[top++] = adj[i];
+					}
+				}
+			}
+			nComps++;
+		}
+		return comp;
+	}
+
+	public int getNumConnectedComponents() {
+		int max = -1;
+		for (int c : getConnectedComponents())
+			max = Math.max(max, c);
+		return max + 1;
+	}
+
+	/**
+	 * Builds the graph from an edge list in two passes: degrees are counted and the rows
+	 * allocated, then filled. Each edge is added in both directions, and self loops and
+	 * repeated edges are dropped.
+	 */
+	public static CsrGraph fromEdges(int nVertices, int[] sources, int[] dests, int nEdges) {
+		Builder builder = new Builder(nVertices);
+		for (int e = 0; e < nEdges; e++)
+			builder.countEdge(sources[e], dests[e]);
+		builder.allocate();
+		for (int e = 0; e < nEdges; e++)
+			builder.addEdge(sources[e], dests[e]);
+		return builder.build();
+	}
+
+	/**
+	 * Two-pass construction. Every edge must be passed to countEdge in the first pass,
+	 * and then to addEdge, in any order, after allocate().
+	 */
+	public static class Builder {
+
+		private final int nVertices;
+		private int[] rowStart;
+		private int[] fill;
+		private int[] adj;
+		private long nSlots;
+
+		public Builder(int nVertices) {
+			this.nVertices = nVertices;
+			rowStart = new int[nVertices + 1];
+			nSlots = 0;
+		}
+
+		public void countEdge(int u, int v) {
+			if (u == v)
+				return;
+			rowStart[u+1]++;
+			rowStart[v+1]++;
+			nSlots += 2;
+		}
+
+		public void allocate() {
+			if (nSlots > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("Too many edges: " + nSlots/2);
+			for (int v = 0; v < nVertices; v++)
+				rowStart[v+1] += rowStart[v];
+			fill = Arrays.copyOf(rowStart, nVertices);
+			adj = new int[(int) nSlots];
+		}
+
+		public void addEdge(int u, int v) {
+			if (u == v)
+				return;
+			adj[fill[u]++] = v;
+			adj[fill[v]++] = u;
+		}
+
+		public CsrGraph build() {
+			// sort each row and remove duplicates, compacting in place
+			int out = 0;
+			int start = 0;
+			for (int v = 0; v < nVertices; v++) {
+				int end = rowStart[v+1];
+				Arrays.sort(adj, start, end);
+				rowStart[v] = out;
+				for (int i = start; i < end; i++) {
+					if (i == start || adj[i] != adj[i-1])
+						adj[out++] = adj[i];
+				}
+				start = end;
+			}
+			rowStart[nVertices] = out;
+
+			int[] compact = out == adj.length ? adj : Arrays.copyOf(adj, out);
+			CsrGraph graph = new CsrGraph(nVertices, rowStart, compact);
+			rowStart = null;
+			fill = null;
+			adj = null;
+			return graph;
+		}
+	}
+
+}
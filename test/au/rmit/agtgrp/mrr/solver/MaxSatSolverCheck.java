@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * MRR - Minimum Reinstantiated Reorder
+ *
+ * Copyright (C) 2020 
+ * Max Waters (max.waters@rmit.edu.au)
+ * RMIT University, Melbourne VIC 3000
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+
+package au.rmit.agtgrp.mrr.solver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import au.rmit.agtgrp.mrr.sat.WeightedSatFormula;
+
+/**
+ * Checks CdclSolver and OllMaxSatSolver against brute force on small random 
+ * formulas, including the incremental re-solving done by LazyTransitivitySolver, 
+ * where propositions, hard clauses and soft clauses are added between calls. 
+ * Run with an optional seed. Exits with status 1 if any check fails.
+ */
+public class MaxSatSolverCheck {
+
+	private static final int N_SAT_INSTANCES = 2000;
+	private static final int N_MAXSAT_INSTANCES = 2000;
+	private static final int N_ROUNDS = 4;
+	private static final int MAX_VARS = 14;
+
+	private final Random random;
+	private int nChecks;
+	private int nFailures;
+
+	public MaxSatSolverCheck(long seed) {
+		random = new Random(seed);
+	}
+
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		MaxSatSolverCheck check = new MaxSatSolverCheck(seed);
+		check.checkPigeonhole();
+		check.checkSat();
+		check.checkMaxSat();
+		System.out.println(check.nChecks + " checks, " + check.nFailures + " failures, seed " + seed);
+		if (check.nFailures > 0)
+			System.exit(1);
+	}
+
+	/*
+	 * A known unsatisfiable formula, which takes enough conflicts to reach the 
+	 * deletion of learnt clauses.
+	 */
+	private void checkPigeonhole() {
+		int holes = 7;
+		CdclSolver sat = new CdclSolver();
+		for (int p = 0; p <= holes; p++) {
+			int[] clause = new int[holes];
+			for (int h = 0; h < holes; h++)
+				clause[h] = p * holes + h + 1;
+			sat.addClause(clause);
+		}
+		for (int h = 0; h < holes; h++) {
+			for (int p = 0; p <= holes; p++) {
+				for (int q = p + 1; q <= holes; q++)
+					sat.addClause(-(p * holes + h + 1), -(q * holes + h + 1));
+			}
+		}
+		expect(!sat.solve(), "pigeonhole " + (holes + 1) + "/" + holes + " is satisfiable");
+		expect(sat.getCore().length == 0, "pigeonhole core is not empty");
+	}
+
+	/*
+	 * Models, unsatisfiability and cores under assumptions, with clauses added 
+	 * to the same solver between calls.
+	 */
+	private void checkSat() {
+		for (int t = 0; t < N_SAT_INSTANCES; t++) {
+			int n = 3 + random.nextInt(MAX_VARS - 2);
+			List<int[]> clauses = new ArrayList<int[]>();
+			CdclSolver sat = new CdclSolver();
+			sat.ensureVariables(n);
+			int nClauses = n * (3 + random.nextInt(3));
+
+			for (int round = 0; round < N_ROUNDS; round++) {
+				for (int i = 0; i < nClauses / N_ROUNDS; i++) {
+					int[] clause = randomClause(n, 1 + random.nextInt(3));
+					clauses.add(clause);
+					sat.addClause(clause);
+				}
+
+				int[] assumptions = randomClause(n, random.nextInt(4));
+				boolean expected = isSatisfiable(clauses, assumptions, n);
+				boolean result = sat.solve(assumptions);
+				String name = "sat instance " + t + " round " + round;
+				if (!expect(result == expected, name + " returned " + result))
+					break;
+
+				if (result) {
+					for (int[] clause : clauses)
+						expect(isSatisfied(clause, sat), name + " model falsifies " + Arrays.toString(clause));
+					for (int a : assumptions)
+						expect(sat.getValue(Math.abs(a)) == (a > 0), name + " model falsifies assumption " + a);
+				}
+				else {
+					int[] core = sat.getCore();
+					for (int a : core)
+						expect(contains(assumptions, a), name + " core contains " + a + ", which is not assumed");
+					expect(!isSatisfiable(clauses, core, n), name + " core " + Arrays.toString(core) + " is satisfiable");
+					if (core.length == 0)
+						break;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Optimal costs, solving the same formula again as it grows.
+	 */
+	private void checkMaxSat() {
+		PrintStream out = System.out;
+		PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+
+		for (int t = 0; t < N_MAXSAT_INSTANCES; t++) {
+			int n = 2 + random.nextInt(MAX_VARS - 5);
+			WeightedSatFormula formula = new WeightedSatFormula(Integer.MAX_VALUE);
+			for (int i = random.nextInt(3 * n); i > 0; i--)
+				formula.addHardClause(randomClause(n, 2 + random.nextInt(2)));
+			boolean units = random.nextBoolean();
+			for (int i = 1 + random.nextInt(3 * n); i > 0; i--)
+				formula.addWeightedClause(randomWeight(), randomClause(n, units ? 1 : 1 + random.nextInt(3)));
+			formula.addHardClause(n, -n);
+
+			OllMaxSatSolver solver = new OllMaxSatSolver(false);
+			for (int round = 0; round < N_ROUNDS; round++) {
+				long expected = getOptimum(formula, n);
+				String name = "maxsat instance " + t + " round " + round;
+				int[] model;
+				System.setOut(quiet);
+				try {
+					model = solver.solve(formula);
+				} catch (IllegalStateException e) {
+					expect(false, name + " " + e.getMessage());
+					break;
+				} finally {
+					System.setOut(out);
+				}
+
+				if (expected < 0) {
+					expect(model == null, name + " found a model of unsatisfiable hard clauses");
+					break;
+				}
+				if (!expect(model != null, name + " found no model"))
+					break;
+				long cost = formula.getCost(model);
+				expect(cost == expected, name + " cost " + cost + ", optimum " + expected);
+
+				// as when a transitivity constraint is added lazily, add a proposition 
+				// with its soft clause and a hard clause implying it
+				if (n < MAX_VARS) {
+					n++;
+					formula.addWeightedClause(1, -n);
+					int[] premises = randomClause(n - 1, 2);
+					formula.addHardClause(-premises[0], -premises[1], n);
+				}
+				formula.addHardClause(randomClause(n, 2));
+				formula.addWeightedClause(randomWeight(), randomClause(n, 1 + random.nextInt(2)));
+			}
+		}
+	}
+
+	private boolean expect(boolean condition, String failure) {
+		nChecks++;
+		if (!condition) {
+			nFailures++;
+			System.out.println("FAILED: " + failure);
+		}
+		return condition;
+	}
+
+	private int[] randomClause(int n, int length) {
+		int[] clause = new int[length];
+		for (int i = 0; i < length; i++)
+			clause[i] = (1 + random.nextInt(n)) * (random.nextBoolean() ? 1 : -1);
+		return clause;
+	}
+
+	private int randomWeight() {
+		return random.nextInt(3) == 0 ? 1 + random.nextInt(5) : 1;
+	}
+
+	private static boolean isSatisfied(int[] clause, CdclSolver sat) {
+		for (int lit : clause) {
+			if (sat.getValue(Math.abs(lit)) == (lit > 0))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isSatisfiable(List<int[]> clauses, int[] assumptions, int n) {
+		for (int x = 0; x < (1 << n); x++) {
+			if (isSatisfied(assumptions, x, true) && isSatisfied(clauses, x))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isSatisfied(List<int[]> clauses, int x) {
+		for (int[] clause : clauses) {
+			if (!isSatisfied(clause, x, false))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Whether some literal, or if all is true every literal, is true in assignment x.
+	 */
+	private static boolean isSatisfied(int[] lits, int x, boolean all) {
+		for (int lit : lits) {
+			boolean val = ((x >> (Math.abs(lit) - 1)) & 1) == 1;
+			if (val == (lit > 0) && !all)
+				return true;
+			if (val != (lit > 0) && all)
+				return false;
+		}
+		return all;
+	}
+
+	private static long getOptimum(WeightedSatFormula formula, int n) {
+		long best = -1;
+		int[] model = new int[n];
+		for (int x = 0; x < (1 << n); x++) {
+			for (int v = 1; v <= n; v++)
+				model[v-1] = ((x >> (v - 1)) & 1) == 1 ? v : -v;
+			long cost = formula.getCost(model);
+			if (cost >= 0 && (best < 0 || cost < best))
+				best = cost;
+		}
+		return best;
+	}
+
+	private static boolean contains(int[] lits, int lit) {
+		for (int l : lits) {
+			if (l == lit)
+				return true;
+		}
+		return false;
+	}
+
+}